@@ -1,35 +1,91 @@
 package xyz.docbleach.api;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import xyz.docbleach.api.bleach.Bleach;
+import xyz.docbleach.api.cache.BleachCache;
+import xyz.docbleach.api.cache.CacheKey;
+import xyz.docbleach.api.cache.CachedResult;
+import xyz.docbleach.api.cache.CapturingOutputStream;
 import xyz.docbleach.api.exception.BleachException;
 import xyz.docbleach.api.exception.RecursionBleachException;
+import xyz.docbleach.api.metrics.Metrics;
 import xyz.docbleach.api.threat.Threat;
+import xyz.docbleach.api.threat.ThreatAction;
+import xyz.docbleach.api.threat.ThreatSeverity;
+import xyz.docbleach.api.threat.ThreatType;
+import xyz.docbleach.api.util.FileBackedInputStream;
+import xyz.docbleach.api.util.StageBuffer;
+import xyz.docbleach.api.util.StreamUtils;
 
 /**
  * A Bleach Session handles the data a bleach needs to store: list of the threats removed, for
  * instance May be used in the future to store configuration (file's password, for instance) or
  * callbacks
+ *
+ * <p>A session may be used by several threads: threats are recorded in a lock-free queue, and the
+ * recursion depth is tracked per branch. Each nested file is sanitized using a branch of the
+ * session, sharing its threats but one level deeper, so files sanitized at the same time do not
+ * count as nested in one another.
+ *
+ * <p>When given a {@link BleachCache}, the session looks its file up before sanitizing it. Only
+ * the session's own file is cached, not the nested ones.
+ *
+ * <p>Content that no bleach handles is never trusted: nothing is written in its place. A file
+ * of an unknown type (an executable in an archive, an HTML attachment...) is removed, and recorded
+ * as a threat. Bleaches keep the structures of their own format by copying them instead of sending
+ * them to the session.
  */
 public class BleachSession implements Serializable {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(BleachSession.class);
   private static final int MAX_ONGOING_TASKS = 10;
   private final transient Bleach bleach;
-  private final Collection<Threat> threats = new ArrayList<>();
+  private final Collection<Threat> threats;
   /**
-   * Counts ongoing tasks, to prevent fork bombs when handling zip archives for instance)
+   * Counts ongoing tasks, in every branch of the session
    */
-  private int ongoingTasks = 0;
+  private final AtomicInteger ongoingTasks;
+  /**
+   * Nesting level of this branch, to prevent fork bombs when handling zip archives for instance
+   */
+  private final transient int depth;
+  /**
+   * Results of previous sanitations, null when caching is disabled
+   */
+  private final transient BleachCache cache;
 
   public BleachSession(Bleach bleach) {
+    this(bleach, null);
+  }
+
+  /**
+   * @param bleach the bleach sanitizing the session's file
+   * @param cache results of previous sanitations, shared between sessions. May be null
+   */
+  public BleachSession(Bleach bleach, BleachCache cache) {
+    this(bleach, new ConcurrentLinkedQueue<>(), new AtomicInteger(), 0, cache);
+  }
+
+  private BleachSession(Bleach bleach, Collection<Threat> threats, AtomicInteger ongoingTasks,
+      int depth, BleachCache cache) {
     this.bleach = bleach;
+    this.threats = threats;
+    this.ongoingTasks = ongoingTasks;
+    this.depth = depth;
+    this.cache = cache;
   }
 
   /**
@@ -43,6 +99,7 @@ public class BleachSession implements Serializable {
     }
     LOGGER.trace("Threat recorded: " + threat);
     threats.add(threat);
+    Metrics.get().threatRecorded(threat.type());
   }
 
   public Collection<Threat> getThreats() {
@@ -60,17 +117,122 @@ public class BleachSession implements Serializable {
     return bleach;
   }
 
+  /**
+   * @return the nesting level of the file being sanitized, 0 for the session's own file
+   */
+  public int getDepth() {
+    return depth;
+  }
+
+  /**
+   * Creates a session for a nested file that may be sanitized on another thread. The child session
+   * shares the bleach and the recursion depth of this session, but records its own threats: they
+   * have to be {@link #merge(BleachSession) merged} back once the task is done, so they are kept in
+   * the files' order.
+   *
+   * @return a new session, for a single nested task
+   */
+  public BleachSession fork() {
+    return new BleachSession(bleach, new ConcurrentLinkedQueue<>(), ongoingTasks, depth, null);
+  }
+
+  /**
+   * Records the threats found by a session created using {@link #fork()}.
+   *
+   * @param child the forked session, whose task is done
+   */
+  public void merge(BleachSession child) {
+    if (child.threats != threats) {
+      threats.addAll(child.threats);
+    }
+  }
+
   public void sanitize(InputStream is, OutputStream os) throws BleachException {
+    if (cache != null && depth == 0 && bleach.handlesMagic(is)) {
+      sanitizeCached(is, os);
+      return;
+    }
+    sanitizeUncached(is, os);
+  }
+
+  /**
+   * Hashes the file, and sends the cached result if there is one. Otherwise, the file is sanitized
+   * and its result stored, if it is not too large.
+   */
+  private void sanitizeCached(InputStream is, OutputStream os) throws BleachException {
+    StageBuffer input = null;
     try {
-      if (ongoingTasks++ >= MAX_ONGOING_TASKS) {
-        throw new RecursionBleachException(ongoingTasks);
+      // A file can be hashed directly, and still be opened by the bleach
+      File file = FileBackedInputStream.getUntouchedFile(is);
+      byte[] digest;
+      InputStream source;
+      if (file != null) {
+        digest = CacheKey.digest(file);
+        source = is;
+      } else {
+        input = new StageBuffer();
+        MessageDigest md = CacheKey.newDigest();
+        try (OutputStream stage = new DigestOutputStream(input, md)) {
+          StreamUtils.copy(is, stage);
+        }
+        digest = md.digest();
+        source = input.getInputStream();
+      }
+
+      String key = CacheKey.of(digest, bleach);
+      CachedResult cached = cache.get(key);
+      if (cached != null) {
+        LOGGER.debug("Cache hit for {}", key);
+        cached.getThreats().forEach(this::recordThreat);
+        os.write(cached.getContent());
+        return;
       }
+
+      int threatsBefore = threats.size();
+      CapturingOutputStream capture = new CapturingOutputStream(os, cache.getMaxEntrySize());
+      sanitizeUncached(source, capture);
+      if (capture.isComplete()) {
+        List<Threat> found = new ArrayList<>(threats);
+        cache.put(key, new CachedResult(found.subList(threatsBefore, found.size()),
+            capture.toByteArray()));
+      }
+    } catch (IOException e) {
+      throw new BleachException(e);
+    } finally {
+      if (input != null) {
+        input.release();
+      }
+    }
+  }
+
+  private void sanitizeUncached(InputStream is, OutputStream os) throws BleachException {
+    BleachSession branch = new BleachSession(bleach, threats, ongoingTasks, depth + 1, null);
+    if (branch.depth > MAX_ONGOING_TASKS) {
+      throw new RecursionBleachException(branch.depth);
+    }
+
+    Metrics.get().fileStarted(branch.depth);
+    ongoingTasks.incrementAndGet();
+    try {
       if (!bleach.handlesMagic(is)) {
+        // Nothing we know how to sanitize: the content is removed
+        recordUnknownFile();
         return;
       }
-      bleach.sanitize(is, os, this);
+      bleach.sanitize(is, os, branch);
     } finally {
-      ongoingTasks--;
+      ongoingTasks.decrementAndGet();
     }
   }
+
+  private void recordUnknownFile() {
+    LOGGER.debug("Removed a file of an unknown type");
+    recordThreat(Threat.builder()
+        .type(ThreatType.UNRECOGNIZED_CONTENT)
+        .severity(ThreatSeverity.MEDIUM)
+        .action(ThreatAction.REMOVE)
+        .location("File")
+        .details("File of an unknown type")
+        .build());
+  }
 }
@@ -18,6 +18,20 @@ public interface Bleach {
    */
   boolean handlesMagic(InputStream stream);
 
+  /**
+   * Lists the magic headers of the files this bleach handles, so a {@link MagicDetector} can
+   * dispatch a file by reading its header once, instead of probing every bleach. A file starting
+   * with one of these signatures must be accepted by {@link #handlesMagic(InputStream)}.
+   *
+   * <p>Bleaches unable to recognize their files by a fixed header return no signature, and are
+   * probed using {@link #handlesMagic(InputStream)}.
+   *
+   * @return the byte signatures of the files this bleach handles
+   */
+  default byte[][] getMagicSignatures() {
+    return new byte[0][];
+  }
+
   /**
    * @return this bleach's name
    */
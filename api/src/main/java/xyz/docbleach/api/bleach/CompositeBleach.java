@@ -1,19 +1,23 @@
 package xyz.docbleach.api.bleach;
 
-import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import xyz.docbleach.api.BleachSession;
 import xyz.docbleach.api.exception.BleachException;
+import xyz.docbleach.api.metrics.BleachMetrics;
+import xyz.docbleach.api.metrics.Metrics;
 import xyz.docbleach.api.util.CloseShieldInputStream;
+import xyz.docbleach.api.util.FileBackedInputStream;
+import xyz.docbleach.api.util.StageBuffer;
 import xyz.docbleach.api.util.StreamUtils;
 
 public class CompositeBleach implements Bleach {
@@ -21,10 +25,23 @@ public class CompositeBleach implements Bleach {
   private static final Logger LOGGER = LoggerFactory.getLogger(CompositeBleach.class);
   private final Collection<Bleach> bleaches = new ArrayList<>();
   private final String name;
+  private final long memoryThreshold;
+  private final MagicDetector detector;
 
   public CompositeBleach(Bleach... bleaches) {
+    this(StageBuffer.DEFAULT_MEMORY_THRESHOLD, bleaches);
+  }
+
+  /**
+   * @param memoryThreshold number of bytes of a bleach's output kept in memory before being
+   * spilled to a temporary file
+   * @param bleaches the bleaches to apply, in order
+   */
+  public CompositeBleach(long memoryThreshold, Bleach... bleaches) {
     Collections.addAll(this.bleaches, bleaches);
 
+    this.memoryThreshold = memoryThreshold;
+    detector = new MagicDetector(this.bleaches);
     name = buildName(bleaches);
   }
 
@@ -38,7 +55,7 @@ public class CompositeBleach implements Bleach {
 
   @Override
   public boolean handlesMagic(InputStream stream) {
-    return bleaches.stream().anyMatch(bleach -> bleach.handlesMagic(stream));
+    return detector.handles(stream);
   }
 
   @Override
@@ -46,49 +63,107 @@ public class CompositeBleach implements Bleach {
     return name;
   }
 
+  /**
+   * Finds the bleaches able to handle a stream, without consuming it.
+   *
+   * @param stream the file, that has to support mark/reset
+   * @return the matching bleaches, in the order they would be applied
+   */
+  public List<Bleach> detect(InputStream stream) {
+    return detector.detect(stream);
+  }
+
   @Override
   public void sanitize(InputStream inputStream, OutputStream outputStream, BleachSession session)
       throws BleachException {
-    ByteArrayOutputStream os = null;
-    CloseShieldInputStream is = new CloseShieldInputStream(inputStream);
+    // Each bleach's output is buffered, then used as the next bleach's input
+    StageBuffer output = null;
+    InputStream is = new CloseShieldInputStream(inputStream);
+    // Bleaches able to handle the current input, detected once per input
+    List<Bleach> candidates = null;
+    BleachMetrics metrics = Metrics.get();
 
-    for (Bleach b : bleaches) {
-      if (os != null && is == null) {
-        // We check if "is" is null to prevent useless object creation
-        ByteArrayInputStream bais = new ByteArrayInputStream(os.toByteArray());
-        is = new CloseShieldInputStream(new BufferedInputStream(bais, bais.available()));
+    try {
+      for (Bleach b : bleaches) {
+        if (is == null) {
+          // We only reopen the previous output when needed
+          is = openStage(output);
+          candidates = null;
+        }
+
+        if (candidates == null) {
+          candidates = detect(is, metrics);
+        }
 
+        if (!candidates.contains(b)) {
+          continue;
+        }
+
+        LOGGER.trace("Using bleach: {}", b.getName());
+        StageBuffer stageOutput = new StageBuffer(memoryThreshold);
+        long inputSize = output == null ? sizeOf(inputStream) : output.size();
+        long start = System.nanoTime();
         try {
-          os.close();
-        } catch (IOException e) {
-          LOGGER.error("Error in CompositeBleach", e);
+          b.sanitize(is, stageOutput, session);
+        } catch (BleachException | RuntimeException e) {
+          metrics.fileSanitized(b.getName(), System.nanoTime() - start, inputSize,
+              stageOutput.size(), false);
+          stageOutput.release();
+          throw e;
         }
-      }
+        metrics.fileSanitized(b.getName(), System.nanoTime() - start, inputSize,
+            stageOutput.size(), true);
 
-      if (!b.handlesMagic(is)) {
-        continue;
+        is = null;
+        if (output != null) {
+          output.release();
+        }
+        output = stageOutput;
       }
 
-      LOGGER.trace("Using bleach: {}", b.getName());
-      os = new ByteArrayOutputStream();
-      b.sanitize(is, os, session);
       try {
-        is.close();
-        is = null;
+        if (output == null) {
+          // no bleach is able to handle this file
+          StreamUtils.copy(is, outputStream);
+        } else {
+          output.writeTo(outputStream);
+        }
       } catch (IOException e) {
-        LOGGER.error("Error in CompositeBleach", e);
+        LOGGER.error("Could not copy streams", e);
+      }
+    } finally {
+      if (output != null) {
+        output.release();
       }
     }
+  }
+
+  private List<Bleach> detect(InputStream stream, BleachMetrics metrics) {
+    long start = System.nanoTime();
+    List<Bleach> candidates = detector.detect(stream);
+    metrics.formatDetected(candidates.isEmpty() ? null : candidates.get(0).getName(),
+        System.nanoTime() - start);
+    return candidates;
+  }
+
+  /**
+   * @return the size of the original file, or -1 if it can not be known without reading it
+   */
+  private static long sizeOf(InputStream stream) {
+    File file = FileBackedInputStream.getUntouchedFile(stream);
+    if (file != null) {
+      return file.length();
+    }
+    InputStream unwrapped = StreamUtils.unwrap(stream);
+    return unwrapped instanceof ByteArrayInputStream
+        ? ((ByteArrayInputStream) unwrapped).available() : -1;
+  }
 
+  private InputStream openStage(StageBuffer stage) throws BleachException {
     try {
-      if (os == null) {
-        // no bleach is able to handle this file
-        StreamUtils.copy(is, outputStream);
-      } else {
-        os.writeTo(outputStream);
-      }
+      return new CloseShieldInputStream(stage.getInputStream());
     } catch (IOException e) {
-      LOGGER.error("Could not copy streams", e);
+      throw new BleachException(e);
     }
   }
 }
@@ -14,6 +14,14 @@ public class DefaultBleach extends CompositeBleach {
     super(getDefaultBleaches());
   }
 
+  /**
+   * @param memoryThreshold number of bytes of a bleach's output kept in memory before being
+   * spilled to a temporary file
+   */
+  public DefaultBleach(long memoryThreshold) {
+    super(memoryThreshold, getDefaultBleaches());
+  }
+
   /**
    * Finds all statically loadable bleaches
    *
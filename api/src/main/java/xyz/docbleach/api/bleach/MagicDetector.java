@@ -0,0 +1,128 @@
+package xyz.docbleach.api.bleach;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import xyz.docbleach.api.util.StreamUtils;
+
+/**
+ * Finds the bleaches able to handle a file, reading its header only once. Signatures declared by
+ * the bleaches (see {@link Bleach#getMagicSignatures()}) are stored in a prefix trie, so the
+ * header is matched against all of them in a single walk. Bleaches without signatures are still
+ * probed using {@link Bleach#handlesMagic(InputStream)}.
+ */
+public class MagicDetector {
+
+  private final List<Bleach> bleaches;
+  private final boolean[] probed;
+  private final Node root = new Node();
+  private final int headerLength;
+
+  /**
+   * @param bleaches the registered bleaches, in order
+   */
+  public MagicDetector(Collection<Bleach> bleaches) {
+    this.bleaches = new ArrayList<>(bleaches);
+    this.probed = new boolean[this.bleaches.size()];
+
+    int maxLength = 0;
+    for (int i = 0; i < this.bleaches.size(); i++) {
+      byte[][] signatures = this.bleaches.get(i).getMagicSignatures();
+      if (signatures == null || signatures.length == 0) {
+        probed[i] = true;
+        continue;
+      }
+
+      for (byte[] signature : signatures) {
+        root.insert(signature, i);
+        maxLength = Math.max(maxLength, signature.length);
+      }
+    }
+    headerLength = maxLength;
+  }
+
+  /**
+   * Checks the magic header of the stream, which has to {@link InputStream#markSupported support
+   * mark}.
+   *
+   * @param stream file from which we will read the header
+   * @return the bleaches able to handle this file, in registration order
+   */
+  public List<Bleach> detect(InputStream stream) {
+    boolean[] matches = match(stream);
+
+    List<Bleach> result = new ArrayList<>();
+    for (int i = 0; i < bleaches.size(); i++) {
+      Bleach bleach = bleaches.get(i);
+      if (matches[i] || (probed[i] && bleach.handlesMagic(stream))) {
+        result.add(bleach);
+      }
+    }
+    return result.isEmpty() ? Collections.emptyList() : result;
+  }
+
+  /**
+   * @param stream file from which we will read the header
+   * @return true if at least one bleach is able to handle this file
+   */
+  public boolean handles(InputStream stream) {
+    boolean[] matches = match(stream);
+
+    for (int i = 0; i < bleaches.size(); i++) {
+      if (matches[i] || (probed[i] && bleaches.get(i).handlesMagic(stream))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean[] match(InputStream stream) {
+    boolean[] matches = new boolean[bleaches.size()];
+    if (headerLength == 0) {
+      return matches;
+    }
+
+    byte[] header = StreamUtils.peekHeader(stream, headerLength);
+    Node node = root;
+    for (byte b : header) {
+      node = node.children == null ? null : node.children[b & 0xFF];
+      if (node == null) {
+        break;
+      }
+      for (int index : node.bleaches) {
+        matches[index] = true;
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * A trie node: the bleaches whose signature ends here, and the next bytes.
+   */
+  private static class Node {
+
+    private Node[] children;
+    private int[] bleaches = new int[0];
+
+    void insert(byte[] signature, int bleach) {
+      Node node = this;
+      for (byte b : signature) {
+        if (node.children == null) {
+          node.children = new Node[256];
+        }
+        int index = b & 0xFF;
+        if (node.children[index] == null) {
+          node.children[index] = new Node();
+        }
+        node = node.children[index];
+      }
+
+      int[] extended = new int[node.bleaches.length + 1];
+      System.arraycopy(node.bleaches, 0, extended, 0, node.bleaches.length);
+      extended[node.bleaches.length] = bleach;
+      node.bleaches = extended;
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package xyz.docbleach.api.cache;
+
+/**
+ * Stores the result of previous sanitations, so a file already seen is not parsed again. Keys are
+ * built by {@link CacheKey}, from the file's content and the bleach's configuration.
+ *
+ * <p>Implementations have to be thread-safe: a cache is shared by every session.
+ */
+public interface BleachCache {
+
+  /**
+   * @param key the entry's key
+   * @return the stored result, or null if there is none
+   */
+  CachedResult get(String key);
+
+  /**
+   * Stores a result. It may be ignored, if it is larger than {@link #getMaxEntrySize()} for
+   * instance.
+   *
+   * @param key the entry's key
+   * @param result the result to store
+   */
+  void put(String key, CachedResult result);
+
+  /**
+   * @return the size of the largest sanitized file that may be stored, in bytes
+   */
+  long getMaxEntrySize();
+
+  /**
+   * @return the hit and miss counters of this cache
+   */
+  CacheStatistics getStatistics();
+}
@@ -0,0 +1,108 @@
+package xyz.docbleach.api.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import xyz.docbleach.api.bleach.Bleach;
+
+/**
+ * Builds the keys of the {@link BleachCache}: the SHA-256 of the file, followed by a fingerprint
+ * of the bleach. Changing the bleaches, or upgrading DocBleach, changes the fingerprint, so older
+ * results are not used anymore: the version is written in a resource of the api module when it is
+ * built.
+ */
+public final class CacheKey {
+
+  private static final String ALGORITHM = "SHA-256";
+  private static final int FINGERPRINT_LENGTH = 16;
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+  private static final String VERSION_RESOURCE = "/xyz/docbleach/api/version.properties";
+  private static final String VERSION = readVersion();
+
+  private CacheKey() {
+    throw new IllegalAccessError("Utility class");
+  }
+
+  /**
+   * @return a new SHA-256 digest, to hash a file while it is copied
+   */
+  public static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance(ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform has to support SHA-256
+      throw new IllegalStateException(ALGORITHM + " is not available", e);
+    }
+  }
+
+  /**
+   * @param file the file to hash
+   * @return the SHA-256 of the file
+   * @throws IOException if the file could not be read
+   */
+  public static byte[] digest(File file) throws IOException {
+    MessageDigest digest = newDigest();
+    byte[] buffer = new byte[64 * 1024];
+    try (InputStream is = new FileInputStream(file)) {
+      int len;
+      while ((len = is.read(buffer)) != -1) {
+        digest.update(buffer, 0, len);
+      }
+    }
+    return digest.digest();
+  }
+
+  /**
+   * @param contentDigest the SHA-256 of the file to sanitize
+   * @param bleach the bleach sanitizing the file
+   * @return the cache key of the file
+   */
+  public static String of(byte[] contentDigest, Bleach bleach) {
+    return toHex(contentDigest) + "-" + fingerprint(bleach);
+  }
+
+  static String fingerprint(Bleach bleach) {
+    String configuration = bleach.getClass().getName() + "\n" + bleach.getName() + "\n" + VERSION;
+    byte[] digest = newDigest().digest(configuration.getBytes(StandardCharsets.UTF_8));
+    return toHex(digest).substring(0, FINGERPRINT_LENGTH);
+  }
+
+  static String version() {
+    return VERSION;
+  }
+
+  /**
+   * @throws IllegalStateException if the version is not known: results cached by an older version
+   * would be used
+   */
+  private static String readVersion() {
+    Properties properties = new Properties();
+    try (InputStream is = CacheKey.class.getResourceAsStream(VERSION_RESOURCE)) {
+      if (is != null) {
+        properties.load(is);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not read " + VERSION_RESOURCE, e);
+    }
+
+    String version = properties.getProperty("version");
+    if (version == null || version.isEmpty() || version.startsWith("${")) {
+      throw new IllegalStateException("The version of DocBleach is not known");
+    }
+    return version;
+  }
+
+  static String toHex(byte[] bytes) {
+    char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+      chars[2 * i + 1] = HEX[bytes[i] & 0xF];
+    }
+    return new String(chars);
+  }
+}
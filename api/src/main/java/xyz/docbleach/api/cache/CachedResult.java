@@ -0,0 +1,48 @@
+package xyz.docbleach.api.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import xyz.docbleach.api.threat.Threat;
+
+/**
+ * A sanitized file, and the threats that were removed from it.
+ */
+public final class CachedResult {
+
+  /**
+   * Rough memory used by a threat, to account for it in the caches' size
+   */
+  private static final int THREAT_SIZE = 256;
+
+  private final List<Threat> threats;
+  private final byte[] content;
+
+  /**
+   * @param threats the threats removed from the file
+   * @param content the sanitized file, not copied
+   */
+  public CachedResult(Collection<Threat> threats, byte[] content) {
+    this.threats = Collections.unmodifiableList(new ArrayList<>(threats));
+    this.content = content;
+  }
+
+  public List<Threat> getThreats() {
+    return threats;
+  }
+
+  /**
+   * @return the sanitized file. The array is shared, and must not be modified
+   */
+  public byte[] getContent() {
+    return content;
+  }
+
+  /**
+   * @return an estimate of the memory used by this result, in bytes
+   */
+  public long size() {
+    return content.length + (long) threats.size() * THREAT_SIZE;
+  }
+}
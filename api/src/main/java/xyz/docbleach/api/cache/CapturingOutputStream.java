@@ -0,0 +1,67 @@
+package xyz.docbleach.api.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes to another stream, keeping a copy of the bytes written as long as they fit in the limit.
+ * Used to store a sanitized file in the cache while it is sent to its destination.
+ */
+public class CapturingOutputStream extends FilterOutputStream {
+
+  private final long limit;
+  private ByteArrayOutputStream capture = new ByteArrayOutputStream();
+
+  /**
+   * @param out the stream to write to
+   * @param limit maximum number of bytes kept
+   */
+  public CapturingOutputStream(OutputStream out, long limit) {
+    super(out);
+    this.limit = limit;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    out.write(b);
+    if (fits(1)) {
+      capture.write(b);
+    }
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    out.write(b, off, len);
+    if (fits(len)) {
+      capture.write(b, off, len);
+    }
+  }
+
+  /**
+   * @return true if every byte written was kept
+   */
+  public boolean isComplete() {
+    return capture != null;
+  }
+
+  /**
+   * @return the bytes written
+   * @throws IllegalStateException if they did not fit in the limit
+   */
+  public byte[] toByteArray() {
+    if (capture == null) {
+      throw new IllegalStateException("The content exceeded " + limit + " bytes");
+    }
+    return capture.toByteArray();
+  }
+
+  private boolean fits(int len) {
+    if (capture != null && capture.size() + (long) len > limit) {
+      // Too large to be cached: the copy is dropped
+      capture = null;
+    }
+    return capture != null;
+  }
+}
@@ -0,0 +1,282 @@
+package xyz.docbleach.api.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import xyz.docbleach.api.threat.Threat;
+import xyz.docbleach.api.threat.ThreatAction;
+import xyz.docbleach.api.threat.ThreatSeverity;
+import xyz.docbleach.api.threat.ThreatType;
+
+/**
+ * Stores the results in a directory, one file per result, up to a total size. The least recently
+ * used files are deleted first; the directory may be reused by the next runs.
+ */
+public class DiskBleachCache implements BleachCache {
+
+  /**
+   * Default size of the largest sanitized file kept: 64MB
+   */
+  public static final long DEFAULT_MAX_ENTRY_SIZE = 64 * 1024 * 1024;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DiskBleachCache.class);
+  // "DBC1", bumped when the format changes
+  private static final int MAGIC = 0x44424331;
+  private static final int MAX_STRING_LENGTH = 1024 * 1024;
+  private static final String EXTENSION = ".entry";
+  private static final String TEMP_EXTENSION = ".tmp";
+
+  private final File directory;
+  private final long maxSize;
+  private final long maxEntrySize;
+  private final CacheStatistics statistics = new CacheStatistics();
+  // File name to file size, access ordered: the eldest entry is the least recently used
+  private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+  private long size = 0;
+
+  /**
+   * @param directory the directory holding the results, created if needed
+   * @param maxSize total size of the files kept, in bytes
+   * @throws IOException if the directory could not be created
+   */
+  public DiskBleachCache(File directory, long maxSize) throws IOException {
+    this(directory, maxSize, Math.min(maxSize, DEFAULT_MAX_ENTRY_SIZE));
+  }
+
+  /**
+   * @param directory the directory holding the results, created if needed
+   * @param maxSize total size of the files kept, in bytes
+   * @param maxEntrySize size of the largest sanitized file kept, in bytes
+   * @throws IOException if the directory could not be created
+   */
+  public DiskBleachCache(File directory, long maxSize, long maxEntrySize) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create the cache directory " + directory);
+    }
+
+    this.directory = directory;
+    this.maxSize = maxSize;
+    this.maxEntrySize = Math.min(maxSize, maxEntrySize);
+    loadIndex();
+  }
+
+  private synchronized void loadIndex() {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+
+    // The files used last were touched last
+    Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+    for (File file : files) {
+      String name = file.getName();
+      if (name.endsWith(TEMP_EXTENSION)) {
+        // Left by an interrupted write
+        delete(file);
+      } else if (name.endsWith(EXTENSION)) {
+        index.put(name, file.length());
+        size += file.length();
+      }
+    }
+    evict();
+    LOGGER.debug("Loaded {} cache entries from {}", index.size(), directory);
+  }
+
+  @Override
+  public CachedResult get(String key) {
+    String name = fileName(key);
+    Long length;
+    synchronized (this) {
+      length = index.get(name);
+      if (length == null) {
+        statistics.recordMiss();
+        return null;
+      }
+    }
+
+    File file = new File(directory, name);
+    try {
+      CachedResult result = read(file, key);
+      if (result != null) {
+        if (!file.setLastModified(System.currentTimeMillis())) {
+          LOGGER.debug("Could not touch cache entry {}", file);
+        }
+        statistics.recordHit();
+        return result;
+      }
+    } catch (IOException | RuntimeException e) {
+      LOGGER.warn("Could not read cache entry {}", file, e);
+    }
+
+    remove(name, length);
+    statistics.recordMiss();
+    return null;
+  }
+
+  @Override
+  public void put(String key, CachedResult result) {
+    if (result.getContent().length > maxEntrySize) {
+      return;
+    }
+
+    String name = fileName(key);
+    File file = new File(directory, name);
+    File temp = null;
+    try {
+      temp = File.createTempFile("entry", TEMP_EXTENSION, directory);
+      write(temp, key, result);
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      LOGGER.warn("Could not write cache entry {}", file, e);
+      if (temp != null) {
+        delete(temp);
+      }
+      return;
+    }
+
+    synchronized (this) {
+      Long previous = index.put(name, file.length());
+      size += file.length() - (previous == null ? 0 : previous);
+      evict();
+    }
+  }
+
+  @Override
+  public long getMaxEntrySize() {
+    return maxEntrySize;
+  }
+
+  @Override
+  public CacheStatistics getStatistics() {
+    return statistics;
+  }
+
+  /**
+   * @return the size of the files kept, in bytes
+   */
+  public synchronized long size() {
+    return size;
+  }
+
+  /**
+   * Removes an entry that could not be read, unless it was replaced in the meantime.
+   *
+   * @param length the size of the file read, as found in the index
+   */
+  private synchronized void remove(String name, long length) {
+    if (index.remove(name, length)) {
+      size -= length;
+      delete(new File(directory, name));
+    }
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<String, Long>> eldest = index.entrySet().iterator();
+    while (size > maxSize && eldest.hasNext()) {
+      Map.Entry<String, Long> entry = eldest.next();
+      size -= entry.getValue();
+      eldest.remove();
+      delete(new File(directory, entry.getKey()));
+    }
+  }
+
+  private static String fileName(String key) {
+    byte[] digest = CacheKey.newDigest().digest(key.getBytes(StandardCharsets.UTF_8));
+    return CacheKey.toHex(digest) + EXTENSION;
+  }
+
+  private static void delete(File file) {
+    if (file.exists() && !file.delete()) {
+      LOGGER.warn("Could not delete cache entry {}", file);
+    }
+  }
+
+  private static void write(File file, String key, CachedResult result) throws IOException {
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeInt(MAGIC);
+      writeString(out, key);
+
+      out.writeInt(result.getThreats().size());
+      for (Threat threat : result.getThreats()) {
+        writeString(out, threat.type().name());
+        writeString(out, threat.severity().name());
+        writeString(out, threat.action().name());
+        writeString(out, threat.location());
+        writeString(out, threat.details());
+      }
+
+      out.writeInt(result.getContent().length);
+      out.write(result.getContent());
+    }
+  }
+
+  /**
+   * @return the stored result, or null if the file holds another key
+   */
+  private CachedResult read(File file, String key) throws IOException {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Unknown cache entry format");
+      }
+      if (!key.equals(readString(in))) {
+        return null;
+      }
+
+      int threatCount = in.readInt();
+      List<Threat> threats = new ArrayList<>();
+      for (int i = 0; i < threatCount; i++) {
+        threats.add(Threat.builder()
+            .type(ThreatType.valueOf(readString(in)))
+            .severity(ThreatSeverity.valueOf(readString(in)))
+            .action(ThreatAction.valueOf(readString(in)))
+            .location(readString(in))
+            .details(readString(in))
+            .build());
+      }
+
+      int length = in.readInt();
+      if (length < 0 || length > maxEntrySize) {
+        throw new IOException("Invalid cache entry length: " + length);
+      }
+      byte[] content = new byte[length];
+      in.readFully(content);
+      return new CachedResult(threats, content);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0 || length > MAX_STRING_LENGTH) {
+      throw new IOException("Invalid cache entry string length: " + length);
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
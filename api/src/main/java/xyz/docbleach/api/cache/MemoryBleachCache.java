@@ -0,0 +1,86 @@
+package xyz.docbleach.api.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the most recently used results in memory, up to a total size.
+ */
+public class MemoryBleachCache implements BleachCache {
+
+  /**
+   * Default size of the largest sanitized file kept: 4MB
+   */
+  public static final long DEFAULT_MAX_ENTRY_SIZE = 4 * 1024 * 1024;
+
+  private final long maxSize;
+  private final long maxEntrySize;
+  private final CacheStatistics statistics = new CacheStatistics();
+  // Access ordered: the eldest entry is the least recently used
+  private final LinkedHashMap<String, CachedResult> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long size = 0;
+
+  /**
+   * @param maxSize total size of the results kept, in bytes
+   */
+  public MemoryBleachCache(long maxSize) {
+    this(maxSize, Math.min(maxSize, DEFAULT_MAX_ENTRY_SIZE));
+  }
+
+  /**
+   * @param maxSize total size of the results kept, in bytes
+   * @param maxEntrySize size of the largest sanitized file kept, in bytes
+   */
+  public MemoryBleachCache(long maxSize, long maxEntrySize) {
+    this.maxSize = maxSize;
+    this.maxEntrySize = Math.min(maxSize, maxEntrySize);
+  }
+
+  @Override
+  public synchronized CachedResult get(String key) {
+    CachedResult result = entries.get(key);
+    if (result == null) {
+      statistics.recordMiss();
+    } else {
+      statistics.recordHit();
+    }
+    return result;
+  }
+
+  @Override
+  public synchronized void put(String key, CachedResult result) {
+    if (result.getContent().length > maxEntrySize || result.size() > maxSize) {
+      return;
+    }
+
+    CachedResult previous = entries.put(key, result);
+    if (previous != null) {
+      size -= previous.size();
+    }
+    size += result.size();
+
+    Iterator<Map.Entry<String, CachedResult>> eldest = entries.entrySet().iterator();
+    while (size > maxSize && eldest.hasNext()) {
+      size -= eldest.next().getValue().size();
+      eldest.remove();
+    }
+  }
+
+  @Override
+  public long getMaxEntrySize() {
+    return maxEntrySize;
+  }
+
+  @Override
+  public CacheStatistics getStatistics() {
+    return statistics;
+  }
+
+  /**
+   * @return the estimated size of the results kept, in bytes
+   */
+  public synchronized long size() {
+    return size;
+  }
+}
@@ -0,0 +1,58 @@
+package xyz.docbleach.api.cache;
+
+/**
+ * Chains caches, from the fastest to the largest: a result found in a tier is copied to the faster
+ * tiers, and new results are stored in every tier.
+ */
+public class TieredBleachCache implements BleachCache {
+
+  private final BleachCache[] tiers;
+  private final CacheStatistics statistics = new CacheStatistics();
+
+  /**
+   * @param tiers the caches to use, the fastest first
+   */
+  public TieredBleachCache(BleachCache... tiers) {
+    this.tiers = tiers.clone();
+  }
+
+  @Override
+  public CachedResult get(String key) {
+    for (int i = 0; i < tiers.length; i++) {
+      CachedResult result = tiers[i].get(key);
+      if (result == null) {
+        continue;
+      }
+
+      for (int j = 0; j < i; j++) {
+        tiers[j].put(key, result);
+      }
+      statistics.recordHit();
+      return result;
+    }
+
+    statistics.recordMiss();
+    return null;
+  }
+
+  @Override
+  public void put(String key, CachedResult result) {
+    for (BleachCache tier : tiers) {
+      tier.put(key, result);
+    }
+  }
+
+  @Override
+  public long getMaxEntrySize() {
+    long max = 0;
+    for (BleachCache tier : tiers) {
+      max = Math.max(max, tier.getMaxEntrySize());
+    }
+    return max;
+  }
+
+  @Override
+  public CacheStatistics getStatistics() {
+    return statistics;
+  }
+}
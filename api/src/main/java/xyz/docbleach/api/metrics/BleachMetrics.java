@@ -0,0 +1,66 @@
+package xyz.docbleach.api.metrics;
+
+import xyz.docbleach.api.threat.ThreatType;
+
+/**
+ * Receives measurements from the sanitation pipeline. Every method does nothing by default, so
+ * implementations only override what they record.
+ *
+ * <p>Implementations are called on the hot path, from several threads: they have to be
+ * thread-safe, and fast. See {@link Metrics} to register one.
+ */
+public interface BleachMetrics {
+
+  /**
+   * Records nothing.
+   */
+  BleachMetrics NOOP = new BleachMetrics() {
+  };
+
+  /**
+   * Called once the format of a file has been detected.
+   *
+   * @param bleach the name of the first bleach able to handle the file, or null if there is none
+   * @param nanos time spent detecting the format
+   */
+  default void formatDetected(String bleach, long nanos) {
+  }
+
+  /**
+   * Called once a bleach is done with a file. The time includes the nested files.
+   *
+   * @param bleach the name of the bleach
+   * @param nanos time spent sanitizing the file
+   * @param bytesIn size of the file, or -1 if it is unknown
+   * @param bytesOut size of the sanitized file
+   * @param success false if the bleach failed
+   */
+  default void fileSanitized(String bleach, long nanos, long bytesIn, long bytesOut,
+      boolean success) {
+  }
+
+  /**
+   * Called before a file is sanitized.
+   *
+   * @param depth the file's nesting level: 1 for the session's own file, 2 for the files it
+   * contains, ...
+   */
+  default void fileStarted(int depth) {
+  }
+
+  /**
+   * @param type the type of the threat that was recorded
+   */
+  default void threatRecorded(ThreatType type) {
+  }
+
+  /**
+   * Called when a {@link xyz.docbleach.api.util.StageBuffer} is released.
+   *
+   * @param size the number of bytes written to the buffer
+   * @param heapBytes the size of the array the buffer allocated
+   * @param spilled true if the content was written to a temporary file
+   */
+  default void bufferReleased(long size, long heapBytes, boolean spilled) {
+  }
+}
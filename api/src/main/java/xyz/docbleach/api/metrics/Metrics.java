@@ -0,0 +1,37 @@
+package xyz.docbleach.api.metrics;
+
+import java.util.Iterator;
+import java.util.ServiceLoader;
+
+/**
+ * Holds the {@link BleachMetrics} used by the whole process. The first implementation found
+ * through the {@link ServiceLoader service provider mechanism} is used, unless another one is
+ * {@link #register(BleachMetrics) registered}. Nothing is recorded by default.
+ */
+public final class Metrics {
+
+  private static volatile BleachMetrics current = load();
+
+  private Metrics() {
+    throw new IllegalAccessError("Utility class");
+  }
+
+  /**
+   * @return the metrics to record measurements to
+   */
+  public static BleachMetrics get() {
+    return current;
+  }
+
+  /**
+   * @param metrics the metrics to record measurements to, null to stop recording them
+   */
+  public static void register(BleachMetrics metrics) {
+    current = metrics == null ? BleachMetrics.NOOP : metrics;
+  }
+
+  private static BleachMetrics load() {
+    Iterator<BleachMetrics> providers = ServiceLoader.load(BleachMetrics.class).iterator();
+    return providers.hasNext() ? providers.next() : BleachMetrics.NOOP;
+  }
+}
@@ -0,0 +1,368 @@
+package xyz.docbleach.api.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import xyz.docbleach.api.threat.ThreatType;
+
+/**
+ * Keeps counters, timers and gauges in memory, so they can be exported. Counters are either
+ * incremented through the registry, or read from the component counting them. Metrics are grouped
+ * in families sharing a name, and told apart by their labels.
+ *
+ * <p>As a {@link BleachMetrics}, the registry records:
+ * <ul>
+ * <li>{@value #DETECTION}: time spent detecting the format of files, per bleach</li>
+ * <li>{@value #SANITATION}: time spent by each bleach, nested files included</li>
+ * <li>{@value #BYTES_IN} and {@value #BYTES_OUT}: size of the files handled by each bleach</li>
+ * <li>{@value #THREATS}: threats removed, per type</li>
+ * <li>{@value #FILES}: files sanitized, per nesting level</li>
+ * <li>{@value #BUFFERS}, {@value #BUFFER_BYTES} and {@value #BUFFER_HEAP_BYTES}: intermediate
+ * buffers used, whether they were spilled to disk, and the heap they allocated</li>
+ * </ul>
+ */
+public class MetricsRegistry implements BleachMetrics {
+
+  public static final String DETECTION = "docbleach_detection_seconds";
+  public static final String SANITATION = "docbleach_sanitation_seconds";
+  public static final String BYTES_IN = "docbleach_input_bytes_total";
+  public static final String BYTES_OUT = "docbleach_output_bytes_total";
+  public static final String THREATS = "docbleach_threats_total";
+  public static final String FILES = "docbleach_files_total";
+  public static final String BUFFERS = "docbleach_buffers_total";
+  public static final String BUFFER_BYTES = "docbleach_buffer_bytes_total";
+  public static final String BUFFER_HEAP_BYTES = "docbleach_buffer_heap_bytes_total";
+
+  private static final String UNKNOWN_BLEACH = "none";
+
+  private final ConcurrentMap<String, Family> families = new ConcurrentHashMap<>();
+  private final Map<ThreatType, Counter> threats = new EnumMap<>(ThreatType.class);
+  private final ConcurrentMap<String, Timer> detections = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, BleachMeters> bleaches = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Integer, Counter> files = new ConcurrentHashMap<>();
+  private final BufferMeters memoryBuffers;
+  private final BufferMeters diskBuffers;
+
+  public MetricsRegistry() {
+    // Threat types are known upfront: no lookup is needed when recording one
+    for (ThreatType type : ThreatType.values()) {
+      threats.put(type, counter(THREATS, "Threats removed", "type", type.name()));
+    }
+    memoryBuffers = new BufferMeters("memory");
+    diskBuffers = new BufferMeters("disk");
+  }
+
+  /**
+   * @param name the family's name
+   * @param help the family's description
+   * @param labels label names and values, alternated
+   * @return the counter, created if needed
+   */
+  public Counter counter(String name, String help, String... labels) {
+    return (Counter) family(name, help, Type.COUNTER).get(labels, () -> new Counter(labels));
+  }
+
+  /**
+   * @param name the family's name
+   * @param help the family's description
+   * @param labels label names and values, alternated
+   * @return the timer, created if needed
+   */
+  public Timer timer(String name, String help, String... labels) {
+    return (Timer) family(name, help, Type.TIMER).get(labels, () -> new Timer(labels));
+  }
+
+  /**
+   * Registers a counter kept by another component, read when the metrics are exported. A counter
+   * registered twice is replaced.
+   *
+   * @param name the family's name
+   * @param help the family's description
+   * @param value the counter's value, that only goes up
+   * @param labels label names and values, alternated
+   */
+  public void functionCounter(String name, String help, LongSupplier value, String... labels) {
+    family(name, help, Type.COUNTER).put(labels, new FunctionCounter(labels, value));
+  }
+
+  /**
+   * Registers a value read when the metrics are exported. A gauge registered twice is replaced.
+   *
+   * @param name the family's name
+   * @param help the family's description
+   * @param value the gauge's value
+   * @param labels label names and values, alternated
+   */
+  public void gauge(String name, String help, LongSupplier value, String... labels) {
+    family(name, help, Type.GAUGE).put(labels, new Gauge(labels, value));
+  }
+
+  /**
+   * @return the registered families, sorted by name
+   */
+  public List<Family> getFamilies() {
+    List<Family> result = new ArrayList<>(families.values());
+    result.sort((a, b) -> a.name.compareTo(b.name));
+    return result;
+  }
+
+  private Family family(String name, String help, Type type) {
+    Family family = families.computeIfAbsent(name, n -> new Family(n, help, type));
+    if (family.type != type) {
+      throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+    }
+    return family;
+  }
+
+  @Override
+  public void formatDetected(String bleach, long nanos) {
+    detections.computeIfAbsent(bleach == null ? UNKNOWN_BLEACH : bleach,
+        b -> timer(DETECTION, "Time spent detecting the format of files", "bleach", b))
+        .record(nanos);
+  }
+
+  @Override
+  public void fileSanitized(String bleach, long nanos, long bytesIn, long bytesOut,
+      boolean success) {
+    BleachMeters meters = bleaches.computeIfAbsent(bleach, BleachMeters::new);
+    (success ? meters.success : meters.failure).record(nanos);
+    if (bytesIn >= 0) {
+      meters.bytesIn.add(bytesIn);
+    }
+    meters.bytesOut.add(bytesOut);
+  }
+
+  @Override
+  public void fileStarted(int depth) {
+    files.computeIfAbsent(depth,
+        d -> counter(FILES, "Files sanitized, per nesting level", "depth", d.toString()))
+        .increment();
+  }
+
+  @Override
+  public void threatRecorded(ThreatType type) {
+    if (type != null) {
+      threats.get(type).increment();
+    }
+  }
+
+  @Override
+  public void bufferReleased(long size, long heapBytes, boolean spilled) {
+    BufferMeters meters = spilled ? diskBuffers : memoryBuffers;
+    meters.count.increment();
+    meters.bytes.add(size);
+    meters.heapBytes.add(heapBytes);
+  }
+
+  /**
+   * The kind of values held by a family.
+   */
+  public enum Type {
+    COUNTER, GAUGE, TIMER
+  }
+
+  /**
+   * A value, identified by its family's name and its labels.
+   */
+  public abstract static class Metric {
+
+    private final Map<String, String> labels;
+
+    Metric(String[] labels) {
+      Map<String, String> map = new LinkedHashMap<>();
+      for (int i = 0; i + 1 < labels.length; i += 2) {
+        map.put(labels[i], labels[i + 1]);
+      }
+      this.labels = Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * @return label names and values, in registration order
+     */
+    public Map<String, String> getLabels() {
+      return labels;
+    }
+  }
+
+  /**
+   * A value that only goes up.
+   */
+  public static class Counter extends Metric {
+
+    private final LongAdder value = new LongAdder();
+
+    Counter(String[] labels) {
+      super(labels);
+    }
+
+    public void increment() {
+      value.increment();
+    }
+
+    public void add(long amount) {
+      value.add(amount);
+    }
+
+    public long getValue() {
+      return value.sum();
+    }
+  }
+
+  /**
+   * A value that only goes up, counted by another component and read on demand.
+   */
+  public static class FunctionCounter extends Metric {
+
+    private final LongSupplier value;
+
+    FunctionCounter(String[] labels, LongSupplier value) {
+      super(labels);
+      this.value = value;
+    }
+
+    public long getValue() {
+      return value.getAsLong();
+    }
+  }
+
+  /**
+   * Counts events and sums up their durations.
+   */
+  public static class Timer extends Metric {
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    Timer(String[] labels) {
+      super(labels);
+    }
+
+    /**
+     * @param nanos the event's duration
+     */
+    public void record(long nanos) {
+      count.increment();
+      totalNanos.add(nanos);
+      maxNanos.accumulate(nanos);
+    }
+
+    public long getCount() {
+      return count.sum();
+    }
+
+    public long getTotalNanos() {
+      return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+      return maxNanos.get();
+    }
+  }
+
+  /**
+   * A value read on demand.
+   */
+  public static class Gauge extends Metric {
+
+    private final LongSupplier value;
+
+    Gauge(String[] labels, LongSupplier value) {
+      super(labels);
+      this.value = value;
+    }
+
+    public long getValue() {
+      return value.getAsLong();
+    }
+  }
+
+  /**
+   * Metrics sharing a name.
+   */
+  public static class Family {
+
+    private final String name;
+    private final String help;
+    private final Type type;
+    private final ConcurrentMap<List<String>, Metric> metrics = new ConcurrentHashMap<>();
+
+    Family(String name, String help, Type type) {
+      this.name = name;
+      this.help = help;
+      this.type = type;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getHelp() {
+      return help;
+    }
+
+    public Type getType() {
+      return type;
+    }
+
+    public Collection<Metric> getMetrics() {
+      return Collections.unmodifiableCollection(metrics.values());
+    }
+
+    Metric get(String[] labels, Supplier<Metric> factory) {
+      return metrics.computeIfAbsent(Arrays.asList(labels), l -> factory.get());
+    }
+
+    void put(String[] labels, Metric metric) {
+      metrics.put(Arrays.asList(labels), metric);
+    }
+  }
+
+  /**
+   * The meters of a bleach, looked up once per file.
+   */
+  private class BleachMeters {
+
+    private final Timer success;
+    private final Timer failure;
+    private final Counter bytesIn;
+    private final Counter bytesOut;
+
+    BleachMeters(String bleach) {
+      success = timer(SANITATION, "Time spent sanitizing files, nested files included",
+          "bleach", bleach, "outcome", "success");
+      failure = timer(SANITATION, "Time spent sanitizing files, nested files included",
+          "bleach", bleach, "outcome", "failure");
+      bytesIn = counter(BYTES_IN, "Size of the files given to the bleaches", "bleach", bleach);
+      bytesOut = counter(BYTES_OUT, "Size of the files written by the bleaches", "bleach", bleach);
+    }
+  }
+
+  /**
+   * The meters of the buffers kept in memory, or of the buffers spilled to disk.
+   */
+  private class BufferMeters {
+
+    private final Counter count;
+    private final Counter bytes;
+    private final Counter heapBytes;
+
+    BufferMeters(String storage) {
+      count = counter(BUFFERS, "Intermediate buffers used", "storage", storage);
+      bytes = counter(BUFFER_BYTES, "Bytes written to intermediate buffers", "storage", storage);
+      heapBytes = counter(BUFFER_HEAP_BYTES, "Heap allocated by intermediate buffers",
+          "storage", storage);
+    }
+  }
+}
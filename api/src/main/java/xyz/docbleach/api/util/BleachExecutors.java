@@ -0,0 +1,87 @@
+package xyz.docbleach.api.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared executor for the bleaches sanitizing nested files in parallel. Virtual threads are used
+ * when the JVM provides them, a fixed pool sized to the number of processors otherwise.
+ *
+ * <p>A task already running on this executor should not wait for new tasks: the pool could be
+ * exhausted by the waiting tasks. Bleaches use {@link #isWorkerThread()} to process nested files
+ * sequentially in that case.
+ */
+public final class BleachExecutors {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(BleachExecutors.class);
+  private static final ThreadLocal<Boolean> WORKER = new ThreadLocal<>();
+
+  private BleachExecutors() {
+    throw new IllegalAccessError("Utility class");
+  }
+
+  /**
+   * @param task the task to run on the shared executor
+   * @param <T> the task's result type
+   * @return the task's future result
+   */
+  public static <T> Future<T> submit(Callable<T> task) {
+    return Holder.EXECUTOR.submit(() -> {
+      WORKER.set(Boolean.TRUE);
+      try {
+        return task.call();
+      } finally {
+        WORKER.remove();
+      }
+    });
+  }
+
+  /**
+   * @return true if the current thread runs a task submitted to the shared executor
+   */
+  public static boolean isWorkerThread() {
+    return WORKER.get() != null;
+  }
+
+  private static ExecutorService createExecutor() {
+    try {
+      // Java 21+, called by reflection to keep the Java 8 compatibility
+      Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      ExecutorService executor = (ExecutorService) method.invoke(null);
+      LOGGER.debug("Using virtual threads");
+      return executor;
+    } catch (ReflectiveOperationException e) {
+      int threads = Runtime.getRuntime().availableProcessors();
+      LOGGER.debug("Virtual threads are not available, using {} threads", threads);
+      return Executors.newFixedThreadPool(threads, new WorkerThreadFactory());
+    }
+  }
+
+  /**
+   * Lazily creates the executor, only when a bleach needs it.
+   */
+  private static class Holder {
+
+    private static final ExecutorService EXECUTOR = createExecutor();
+  }
+
+  private static class WorkerThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "docbleach-worker-" + count.incrementAndGet());
+      // Never prevents the JVM from exiting
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -45,4 +45,11 @@ public class CloseShieldInputStream extends FilterInputStream {
   public void _close() throws IOException {
     super.close();
   }
+
+  /**
+   * @return the stream this proxy protects
+   */
+  public InputStream getWrappedStream() {
+    return in;
+  }
 }
@@ -0,0 +1,133 @@
+package xyz.docbleach.api.util;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Buffered stream reading a file, that remembers which file it reads. Bleaches able to work on a
+ * file directly (random access, memory mapping, ...) may use {@link #getFile()} instead of copying
+ * the stream, as long as it is still {@link #isUntouched() untouched}.
+ */
+public class FileBackedInputStream extends BufferedInputStream {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private final File file;
+  private long position = 0;
+  private long markPosition = 0;
+
+  public FileBackedInputStream(File file) throws FileNotFoundException {
+    super(new FileInputStream(file), BUFFER_SIZE);
+    this.file = file;
+  }
+
+  /**
+   * Finds the file holding the content of a stream, if any.
+   *
+   * @param stream the stream given to a bleach, possibly {@link CloseShieldInputStream shielded}
+   * @return the file read by the stream, or null if the stream is not file-backed or has been
+   * read already
+   */
+  public static File getUntouchedFile(InputStream stream) {
+    InputStream unwrapped = StreamUtils.unwrap(stream);
+    if (!(unwrapped instanceof FileBackedInputStream)) {
+      return null;
+    }
+
+    FileBackedInputStream fileStream = (FileBackedInputStream) unwrapped;
+    return fileStream.isUntouched() ? fileStream.getFile() : null;
+  }
+
+  /**
+   * @return the file this stream reads
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * @return true if no byte has been consumed yet, meaning the file and the stream hold the same
+   * content
+   */
+  public synchronized boolean isUntouched() {
+    return position == 0;
+  }
+
+  /**
+   * Sends the rest of the file to a channel, without copying it through the heap when the OS
+   * supports it. The stream is then at the end of the file, and its mark is discarded.
+   *
+   * @param target the channel to write to
+   * @return the number of bytes sent, which may be less than the rest of the file if the file is
+   * not a regular file
+   * @throws IOException if the file could not be read, or the channel written to
+   */
+  public synchronized long transferTo(WritableByteChannel target) throws IOException {
+    if (in == null) {
+      throw new IOException("Stream closed");
+    }
+    if (!file.isFile()) {
+      return 0;
+    }
+
+    // The buffer may hold bytes read ahead: the transfer starts at the logical position
+    FileChannel channel = ((FileInputStream) in).getChannel();
+    long size = channel.size();
+    long transferred = 0;
+    while (position + transferred < size) {
+      long n = channel.transferTo(position + transferred, size - position - transferred, target);
+      if (n <= 0) {
+        break;
+      }
+      transferred += n;
+    }
+
+    position += transferred;
+    channel.position(position);
+    pos = count;
+    markpos = -1;
+    return transferred;
+  }
+
+  @Override
+  public synchronized int read() throws IOException {
+    int b = super.read();
+    if (b != -1) {
+      position++;
+    }
+    return b;
+  }
+
+  @Override
+  public synchronized int read(byte[] b, int off, int len) throws IOException {
+    int read = super.read(b, off, len);
+    if (read > 0) {
+      position += read;
+    }
+    return read;
+  }
+
+  @Override
+  public synchronized long skip(long n) throws IOException {
+    long skipped = super.skip(n);
+    position += skipped;
+    return skipped;
+  }
+
+  @Override
+  public synchronized void mark(int readlimit) {
+    super.mark(readlimit);
+    markPosition = position;
+  }
+
+  @Override
+  public synchronized void reset() throws IOException {
+    super.reset();
+    position = markPosition;
+  }
+}
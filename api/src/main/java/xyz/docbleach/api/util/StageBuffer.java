@@ -0,0 +1,236 @@
+package xyz.docbleach.api.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import xyz.docbleach.api.metrics.Metrics;
+
+/**
+ * Holds the output of a bleach, so it can be read again by the next one. The content stays in
+ * memory until it grows past a threshold, then it is spilled to a temporary file: the heap used
+ * per document is bounded, no matter how large the document is.
+ *
+ * <p>Closing the buffer only means the writer is done: some bleaches close the stream they write
+ * to. The buffer stays readable until it is {@link #release() released}.
+ */
+public class StageBuffer extends OutputStream {
+
+  /**
+   * Default amount of bytes kept in memory before spilling to disk: 8MB
+   */
+  public static final long DEFAULT_MEMORY_THRESHOLD = 8 * 1024 * 1024;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(StageBuffer.class);
+  private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+  private static final int FILE_BUFFER_SIZE = 64 * 1024;
+  private static final String TEMP_FILE_PREFIX = "docbleach_";
+
+  private final long memoryThreshold;
+  private final Collection<Closeable> readers = new ArrayList<>();
+  private MemoryBuffer memory = new MemoryBuffer();
+  private File file;
+  private OutputStream fileStream;
+  private long size = 0;
+  /**
+   * Bytes of heap allocated for the content, reported once the buffer is released
+   */
+  private long heapBytes = 0;
+  private boolean closed = false;
+  private boolean released = false;
+
+  public StageBuffer() {
+    this(DEFAULT_MEMORY_THRESHOLD);
+  }
+
+  /**
+   * @param memoryThreshold number of bytes kept in memory before spilling to a temporary file
+   */
+  public StageBuffer(long memoryThreshold) {
+    this.memoryThreshold = Math.max(0, Math.min(memoryThreshold, MAX_ARRAY_SIZE));
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    ensureCapacity(1);
+    if (file == null) {
+      memory.write(b);
+    } else {
+      fileStream.write(b);
+    }
+    size++;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    ensureCapacity(len);
+    if (file == null) {
+      memory.write(b, off, len);
+    } else {
+      fileStream.write(b, off, len);
+    }
+    size += len;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (fileStream != null) {
+      fileStream.flush();
+    }
+  }
+
+  /**
+   * Marks the end of the writes. The content is still available until the buffer is released.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (fileStream != null) {
+      fileStream.close();
+    }
+  }
+
+  /**
+   * @return the number of bytes written to this buffer
+   */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * @return true if the content was too large to be kept in memory
+   */
+  public boolean isSpilled() {
+    return file != null;
+  }
+
+  /**
+   * @return the temporary file holding the content, or null if it is still in memory
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Opens a new stream on the content of this buffer, and ends the writes. The returned stream
+   * {@link InputStream#markSupported() supports mark}, and is closed when the buffer is released.
+   *
+   * @return the content of this buffer
+   * @throws IOException if the temporary file could not be opened
+   */
+  public InputStream getInputStream() throws IOException {
+    close();
+    checkNotReleased();
+
+    if (file == null) {
+      // No copy: the stream reads the buffer's array
+      return new ByteArrayInputStream(memory.array(), 0, memory.size());
+    }
+
+    FileBackedInputStream is = new FileBackedInputStream(file);
+    readers.add(is);
+    return is;
+  }
+
+  /**
+   * Writes the whole content of this buffer to the given stream, and ends the writes.
+   *
+   * @param os the stream to write to
+   * @throws IOException if the content could not be copied
+   */
+  public void writeTo(OutputStream os) throws IOException {
+    close();
+    checkNotReleased();
+
+    if (file == null) {
+      memory.writeTo(os);
+      return;
+    }
+
+    try (InputStream is = new FileBackedInputStream(file)) {
+      StreamUtils.copy(is, os);
+    }
+  }
+
+  /**
+   * Frees the memory and deletes the temporary file used by this buffer, if any. Streams opened
+   * using {@link #getInputStream()} are closed.
+   */
+  public void release() {
+    if (released) {
+      return;
+    }
+    try {
+      close();
+    } catch (IOException e) {
+      LOGGER.warn("Could not close the buffer", e);
+    }
+
+    for (Closeable reader : readers) {
+      try {
+        reader.close();
+      } catch (IOException e) {
+        LOGGER.warn("Could not close the buffer's reader", e);
+      }
+    }
+    readers.clear();
+    if (memory != null) {
+      heapBytes = memory.array().length;
+    }
+    memory = null;
+    released = true;
+    Metrics.get().bufferReleased(size, heapBytes, file != null);
+
+    if (file != null && file.exists() && !file.delete()) {
+      LOGGER.warn("Could not delete temporary file {}", file.getAbsolutePath());
+    }
+  }
+
+  private void ensureCapacity(int len) throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (file == null && memory.size() + (long) len > memoryThreshold) {
+      spill();
+    }
+  }
+
+  private void spill() throws IOException {
+    checkNotReleased();
+    LOGGER.debug("Buffer exceeded {} bytes, spilling to disk", memoryThreshold);
+
+    file = File.createTempFile(TEMP_FILE_PREFIX, ".tmp");
+    fileStream = new BufferedOutputStream(new FileOutputStream(file), FILE_BUFFER_SIZE);
+    memory.writeTo(fileStream);
+    heapBytes = memory.array().length + (long) FILE_BUFFER_SIZE;
+    memory = null;
+  }
+
+  private void checkNotReleased() throws IOException {
+    if (released) {
+      throw new IOException("Buffer released");
+    }
+  }
+
+  /**
+   * Gives access to the internal array, so the content can be read without being copied.
+   */
+  private static class MemoryBuffer extends ByteArrayOutputStream {
+
+    byte[] array() {
+      return buf;
+    }
+  }
+}
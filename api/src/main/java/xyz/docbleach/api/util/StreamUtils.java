@@ -1,49 +1,167 @@
 package xyz.docbleach.api.util;
 
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class StreamUtils {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(StreamUtils.class);
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+  /**
+   * Copy buffer of each thread, null while a copy is using it
+   */
+  private static final ThreadLocal<byte[]> COPY_BUFFER = new ThreadLocal<>();
+  private static final LongAdder COPIED_BYTES = new LongAdder();
+  private static final byte[] ZIP_MAGIC = new byte[]{0x50, 0x4B, 0x03, 0x04};
+  /**
+   * Offset of the name length in a zip's local file header, the name follows it and the extra
+   * field's length
+   */
+  private static final int ZIP_NAME_LENGTH_OFFSET = 26;
+  private static final int ZIP_NAME_OFFSET = 30;
 
   private StreamUtils() {
     throw new IllegalAccessError("Utility class");
   }
 
-  public static void copy(InputStream is, OutputStream os) throws IOException {
-    byte[] buffer = new byte[100];
-    int len;
-    while ((len = is.read(buffer)) != -1) {
-      os.write(buffer, 0, len);
+  /**
+   * Copies a stream until its end. When a {@link FileBackedInputStream} is copied to a file, the
+   * transfer is left to the OS (using sendfile, for instance). Other copies use a 64KB buffer,
+   * reused by each thread.
+   *
+   * @param is the stream to read from
+   * @param os the stream to write to
+   * @return the number of bytes copied
+   * @throws IOException if a stream could not be read or written
+   */
+  public static long copy(InputStream is, OutputStream os) throws IOException {
+    long copied = transferFile(is, os);
+    // The transfer may stop early, if the file is not a regular file for instance
+    copied += copyBuffered(is, os);
+    COPIED_BYTES.add(copied);
+    return copied;
+  }
+
+  /**
+   * @return the number of bytes copied by {@link #copy(InputStream, OutputStream)} since the JVM
+   * started, in every thread
+   */
+  public static long getCopiedBytes() {
+    return COPIED_BYTES.sum();
+  }
+
+  private static long transferFile(InputStream is, OutputStream os) throws IOException {
+    InputStream source = unwrap(is);
+    // Subclasses may alter the written bytes, their channel would bypass them
+    if (!(source instanceof FileBackedInputStream) || os.getClass() != FileOutputStream.class) {
+      return 0;
     }
+
+    return ((FileBackedInputStream) source).transferTo(((FileOutputStream) os).getChannel());
+  }
+
+  private static long copyBuffered(InputStream is, OutputStream os) throws IOException {
+    byte[] buffer = COPY_BUFFER.get();
+    // A nested copy, from within a stream, gets its own buffer
+    COPY_BUFFER.set(null);
+    if (buffer == null) {
+      buffer = new byte[COPY_BUFFER_SIZE];
+    }
+
+    try {
+      long copied = 0;
+      int len;
+      while ((len = is.read(buffer)) != -1) {
+        os.write(buffer, 0, len);
+        copied += len;
+      }
+      return copied;
+    } finally {
+      COPY_BUFFER.set(buffer);
+    }
+  }
+
+  /**
+   * Removes the {@link CloseShieldInputStream} proxies around a stream, so its real type can be
+   * checked. The returned stream must not be closed by a bleach.
+   *
+   * @param stream the stream given to a bleach
+   * @return the stream actually read
+   */
+  public static InputStream unwrap(InputStream stream) {
+    InputStream unwrapped = stream;
+    while (unwrapped instanceof CloseShieldInputStream) {
+      unwrapped = ((CloseShieldInputStream) unwrapped).getWrappedStream();
+    }
+    return unwrapped;
   }
 
   public static boolean hasHeader(InputStream stream, byte[] header) {
-    byte[] fileMagic = new byte[header.length];
-    int length;
+    byte[] fileMagic = peekHeader(stream, header.length);
+
+    return fileMagic.length == header.length && Arrays.equals(fileMagic, header);
+  }
+
+  /**
+   * Checks the name of the first entry of a zip archive, and rewinds the stream.
+   *
+   * @param stream the archive, that has to {@link InputStream#markSupported support mark}
+   * @param name the expected name
+   * @return true if the stream is a zip archive whose first entry has this name
+   */
+  public static boolean hasFirstZipEntry(InputStream stream, String name) {
+    byte[] expected = name.getBytes(StandardCharsets.UTF_8);
+    byte[] header = peekHeader(stream, ZIP_NAME_OFFSET + expected.length);
+    if (header.length < ZIP_NAME_OFFSET
+        || !Arrays.equals(Arrays.copyOf(header, ZIP_MAGIC.length), ZIP_MAGIC)) {
+      return false;
+    }
+
+    int nameLength = (header[ZIP_NAME_LENGTH_OFFSET] & 0xFF)
+        | (header[ZIP_NAME_LENGTH_OFFSET + 1] & 0xFF) << 8;
+    return nameLength == expected.length
+        && Arrays.equals(Arrays.copyOfRange(header, ZIP_NAME_OFFSET, header.length), expected);
+  }
 
-    stream.mark(header.length);
+  /**
+   * Reads the first bytes of the stream, and rewinds it. The stream has to {@link
+   * InputStream#markSupported support mark}, or be a {@link PushbackInputStream}.
+   *
+   * @param stream the stream to read from
+   * @param length the maximum number of bytes to read
+   * @return the first bytes of the stream, shorter than length if the stream is shorter
+   */
+  public static byte[] peekHeader(InputStream stream, int length) {
+    byte[] header = new byte[length];
+    int read = 0;
+
+    stream.mark(length);
 
     try {
-      length = stream.read(fileMagic);
+      int len;
+      while (read < length && (len = stream.read(header, read, length - read)) != -1) {
+        read += len;
+      }
 
       if (stream instanceof PushbackInputStream) {
         PushbackInputStream pin = (PushbackInputStream) stream;
-        pin.unread(fileMagic, 0, length);
+        pin.unread(header, 0, read);
       } else {
         stream.reset();
       }
     } catch (IOException e) {
       LOGGER.warn("An exception occured", e);
-      return false;
+      return new byte[0];
     }
 
-    return length == header.length && Arrays.equals(fileMagic, header);
+    return read == length ? header : Arrays.copyOf(header, read);
   }
 }
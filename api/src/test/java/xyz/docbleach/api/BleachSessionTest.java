@@ -0,0 +1,158 @@
+package xyz.docbleach.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import xyz.docbleach.api.bleach.Bleach;
+import xyz.docbleach.api.cache.MemoryBleachCache;
+import xyz.docbleach.api.exception.BleachException;
+import xyz.docbleach.api.exception.RecursionBleachException;
+import xyz.docbleach.api.threat.Threat;
+import xyz.docbleach.api.threat.ThreatAction;
+import xyz.docbleach.api.threat.ThreatSeverity;
+import xyz.docbleach.api.threat.ThreatType;
+
+class BleachSessionTest {
+
+  @Test
+  void nestedFilesAreLimited() {
+    BleachSession session = new BleachSession(new NestingBleach(100));
+    assertThrows(RecursionBleachException.class, () -> sanitize(session));
+  }
+
+  @Test
+  void depthIsTrackedPerBranch() throws Exception {
+    // Each task nests 9 files: the limit is only reached if the tasks count as nested
+    BleachSession session = new BleachSession(new NestingBleach(9));
+    int tasks = 8;
+    CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(tasks);
+
+    try {
+      List<Future<Void>> results = new ArrayList<>();
+      for (int i = 0; i < tasks; i++) {
+        results.add(executor.submit(() -> {
+          start.await();
+          sanitize(session);
+          return null;
+        }));
+      }
+      start.countDown();
+
+      for (Future<Void> result : results) {
+        result.get(10, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    assertEquals(tasks * 10, session.threatCount());
+  }
+
+  @Test
+  void forkedThreatsAreMerged() throws BleachException {
+    BleachSession session = new BleachSession(new NestingBleach(0));
+    BleachSession child = session.fork();
+    assertEquals(session.getDepth(), child.getDepth());
+
+    sanitize(child);
+    assertEquals(0, session.threatCount());
+    assertEquals(1, child.threatCount());
+
+    session.merge(child);
+    assertEquals(1, session.threatCount());
+  }
+
+  @Test
+  void cachedResultsAreReused() throws BleachException {
+    NestingBleach bleach = new NestingBleach(1);
+    MemoryBleachCache cache = new MemoryBleachCache(1024);
+
+    BleachSession first = new BleachSession(bleach, cache);
+    sanitize(first);
+    assertEquals(2, first.threatCount());
+    assertEquals(2, bleach.calls.get());
+
+    // Same file, same bleach: the bleach is not called again
+    BleachSession second = new BleachSession(bleach, cache);
+    sanitize(second);
+    assertEquals(2, second.threatCount());
+    assertEquals(2, bleach.calls.get());
+    assertEquals(1, cache.getStatistics().getHitCount());
+  }
+
+  @Test
+  void unknownFilesAreRemoved() throws BleachException {
+    BleachSession session = new BleachSession(new NestingBleach(0) {
+      @Override
+      public boolean handlesMagic(InputStream stream) {
+        return false;
+      }
+    });
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    session.sanitize(new ByteArrayInputStream("MZ".getBytes()), os);
+
+    assertEquals(0, os.size());
+    assertEquals(1, session.threatCount());
+    Threat threat = session.getThreats().iterator().next();
+    assertEquals(ThreatType.UNRECOGNIZED_CONTENT, threat.type());
+    assertEquals(ThreatAction.REMOVE, threat.action());
+  }
+
+  private static void sanitize(BleachSession session) throws BleachException {
+    session.sanitize(new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream());
+  }
+
+  /**
+   * Records a threat, and sanitizes a nested file until the maximum depth is reached.
+   */
+  private static class NestingBleach implements Bleach {
+
+    private final int maxDepth;
+    private final AtomicInteger calls = new AtomicInteger();
+
+    NestingBleach(int maxDepth) {
+      this.maxDepth = maxDepth;
+    }
+
+    @Override
+    public boolean handlesMagic(InputStream stream) {
+      return true;
+    }
+
+    @Override
+    public String getName() {
+      return "Nesting";
+    }
+
+    @Override
+    public void sanitize(InputStream inputStream, OutputStream outputStream,
+        BleachSession session) throws BleachException {
+      calls.incrementAndGet();
+      session.recordThreat(Threat.builder()
+          .type(ThreatType.ACTIVE_CONTENT)
+          .severity(ThreatSeverity.LOW)
+          .action(ThreatAction.NOTHING)
+          .location("depth " + session.getDepth())
+          .details("Nested file")
+          .build());
+
+      if (session.getDepth() <= maxDepth) {
+        BleachSessionTest.sanitize(session);
+      }
+    }
+  }
+}
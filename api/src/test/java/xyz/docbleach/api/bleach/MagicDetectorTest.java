@@ -0,0 +1,99 @@
+package xyz.docbleach.api.bleach;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import xyz.docbleach.api.BleachSession;
+import xyz.docbleach.api.util.StreamUtils;
+
+class MagicDetectorTest {
+
+  private final Bleach zip = new SignatureBleach("zip", new byte[]{'P', 'K', 3, 4});
+  private final Bleach office = new SignatureBleach("office", new byte[]{'P', 'K', 3, 4});
+  private final Bleach pdf = new SignatureBleach("pdf", "%PDF".getBytes());
+  private final Bleach text = new SignatureBleach("text", "TEXT".getBytes()) {
+    @Override
+    public byte[][] getMagicSignatures() {
+      // Only probed through handlesMagic
+      return new byte[0][];
+    }
+  };
+
+  private MagicDetector instance;
+
+  @BeforeEach
+  void setUp() {
+    instance = new MagicDetector(Arrays.asList(office, pdf, text, zip));
+  }
+
+  @Test
+  void detectsEveryMatchingBleachInOrder() {
+    assertEquals(Arrays.asList(office, zip), instance.detect(stream("PK\u0003\u0004content")));
+    assertEquals(Collections.singletonList(pdf), instance.detect(stream("%PDF-1.5")));
+    assertEquals(Collections.singletonList(text), instance.detect(stream("TEXT file")));
+  }
+
+  @Test
+  void ignoresUnknownAndShortFiles() {
+    assertTrue(instance.detect(stream("")).isEmpty());
+    assertTrue(instance.detect(stream("PK")).isEmpty());
+    assertTrue(instance.detect(stream("Anything")).isEmpty());
+    assertFalse(instance.handles(stream("%PD")));
+    assertTrue(instance.handles(stream("%PDF")));
+  }
+
+  @Test
+  void streamIsRewound() {
+    InputStream is = stream("%PDF-1.5");
+    List<Bleach> bleaches = instance.detect(is);
+
+    assertEquals(1, bleaches.size());
+    assertTrue(bleaches.get(0).handlesMagic(is), "The header can be read again");
+  }
+
+  private static InputStream stream(String content) {
+    return new BufferedInputStream(new ByteArrayInputStream(content.getBytes()));
+  }
+
+  private static class SignatureBleach implements Bleach {
+
+    private final String name;
+    private final byte[] signature;
+
+    SignatureBleach(String name, byte[] signature) {
+      this.name = name;
+      this.signature = signature;
+    }
+
+    @Override
+    public boolean handlesMagic(InputStream stream) {
+      return StreamUtils.hasHeader(stream, signature);
+    }
+
+    @Override
+    public byte[][] getMagicSignatures() {
+      return new byte[][]{signature};
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public void sanitize(InputStream inputStream, OutputStream outputStream,
+        BleachSession session) {
+      // Nothing to do
+    }
+  }
+}
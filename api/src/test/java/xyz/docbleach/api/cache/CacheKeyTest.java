@@ -0,0 +1,19 @@
+package xyz.docbleach.api.cache;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import org.junit.jupiter.api.Test;
+
+class CacheKeyTest {
+
+  @Test
+  void versionIsKnown() {
+    String version = CacheKey.version();
+
+    // Without it, upgrading DocBleach would not change the cache keys
+    assertNotNull(version);
+    assertFalse(version.isEmpty());
+    assertFalse(version.contains("${"), version);
+  }
+}
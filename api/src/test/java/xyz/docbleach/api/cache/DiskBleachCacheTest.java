@@ -0,0 +1,78 @@
+package xyz.docbleach.api.cache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import xyz.docbleach.api.threat.Threat;
+import xyz.docbleach.api.threat.ThreatAction;
+import xyz.docbleach.api.threat.ThreatSeverity;
+import xyz.docbleach.api.threat.ThreatType;
+
+class DiskBleachCacheTest {
+
+  private static final Threat THREAT = Threat.builder()
+      .type(ThreatType.ACTIVE_CONTENT)
+      .severity(ThreatSeverity.HIGH)
+      .action(ThreatAction.REMOVE)
+      .location("Offset 42")
+      .details("Macro")
+      .build();
+
+  private File directory;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    directory = Files.createTempDirectory("docbleach-cache").toFile();
+  }
+
+  @AfterEach
+  void tearDown() {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  @Test
+  void resultsSurviveARestart() throws IOException {
+    byte[] content = "sanitized".getBytes();
+    new DiskBleachCache(directory, 1024).put("key", new CachedResult(
+        Collections.singletonList(THREAT), content));
+
+    DiskBleachCache cache = new DiskBleachCache(directory, 1024);
+    CachedResult result = cache.get("key");
+    assertNotNull(result);
+    assertArrayEquals(content, result.getContent());
+    assertEquals(Collections.singletonList(THREAT), result.getThreats());
+
+    assertNull(cache.get("other key"));
+    assertEquals(1, cache.getStatistics().getHitCount());
+    assertEquals(1, cache.getStatistics().getMissCount());
+  }
+
+  @Test
+  void leastRecentlyUsedResultsAreEvicted() throws IOException {
+    DiskBleachCache cache = new DiskBleachCache(directory, 300);
+    cache.put("first", new CachedResult(Collections.emptyList(), new byte[100]));
+    cache.put("second", new CachedResult(Collections.emptyList(), new byte[100]));
+    assertNotNull(cache.get("first"));
+
+    cache.put("third", new CachedResult(Collections.emptyList(), new byte[100]));
+    assertNotNull(cache.get("first"));
+    assertNull(cache.get("second"));
+    assertNotNull(cache.get("third"));
+    assertEquals(2, directory.listFiles().length);
+  }
+}
@@ -0,0 +1,47 @@
+package xyz.docbleach.api.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+
+class MemoryBleachCacheTest {
+
+  @Test
+  void leastRecentlyUsedResultsAreEvicted() {
+    MemoryBleachCache cache = new MemoryBleachCache(250);
+    cache.put("first", result(100));
+    cache.put("second", result(100));
+    assertNotNull(cache.get("first"));
+
+    cache.put("third", result(100));
+    assertNotNull(cache.get("first"));
+    assertNull(cache.get("second"));
+    assertNotNull(cache.get("third"));
+    assertEquals(200, cache.size());
+
+    // Larger than the cache itself
+    cache.put("fourth", result(300));
+    assertNull(cache.get("fourth"));
+  }
+
+  @Test
+  void tiersArePopulatedOnHit() {
+    MemoryBleachCache fast = new MemoryBleachCache(1000);
+    MemoryBleachCache slow = new MemoryBleachCache(1000);
+    slow.put("key", result(10));
+
+    TieredBleachCache cache = new TieredBleachCache(fast, slow);
+    assertNotNull(cache.get("key"));
+    assertNotNull(fast.get("key"));
+    assertNull(cache.get("other key"));
+    assertEquals(1, cache.getStatistics().getHitCount());
+    assertEquals(1, cache.getStatistics().getMissCount());
+  }
+
+  private static CachedResult result(int size) {
+    return new CachedResult(Collections.emptyList(), new byte[size]);
+  }
+}
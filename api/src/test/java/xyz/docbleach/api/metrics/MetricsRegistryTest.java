@@ -0,0 +1,122 @@
+package xyz.docbleach.api.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import xyz.docbleach.api.BleachSession;
+import xyz.docbleach.api.bleach.Bleach;
+import xyz.docbleach.api.bleach.CompositeBleach;
+import xyz.docbleach.api.exception.BleachException;
+import xyz.docbleach.api.metrics.MetricsRegistry.Counter;
+import xyz.docbleach.api.metrics.MetricsRegistry.Family;
+import xyz.docbleach.api.metrics.MetricsRegistry.FunctionCounter;
+import xyz.docbleach.api.metrics.MetricsRegistry.Timer;
+import xyz.docbleach.api.threat.Threat;
+import xyz.docbleach.api.threat.ThreatAction;
+import xyz.docbleach.api.threat.ThreatSeverity;
+import xyz.docbleach.api.threat.ThreatType;
+import xyz.docbleach.api.util.StreamUtils;
+
+class MetricsRegistryTest {
+
+  private MetricsRegistry registry;
+
+  @BeforeEach
+  void setUp() {
+    registry = new MetricsRegistry();
+    Metrics.register(registry);
+  }
+
+  @AfterEach
+  void tearDown() {
+    Metrics.register(null);
+  }
+
+  @Test
+  void sanitationsAreRecorded() throws BleachException {
+    BleachSession session = new BleachSession(new CompositeBleach(new CopyBleach()));
+    session.sanitize(new ByteArrayInputStream(new byte[100]), new ByteArrayOutputStream());
+
+    Timer sanitation = registry.timer(MetricsRegistry.SANITATION, "", "bleach", "Copy",
+        "outcome", "success");
+    assertEquals(1, sanitation.getCount());
+    assertTrue(sanitation.getMaxNanos() <= sanitation.getTotalNanos());
+    assertEquals(1, registry.timer(MetricsRegistry.DETECTION, "", "bleach", "Copy").getCount());
+    assertEquals(100, counter(MetricsRegistry.BYTES_IN, "bleach", "Copy"));
+    assertEquals(100, counter(MetricsRegistry.BYTES_OUT, "bleach", "Copy"));
+    assertEquals(1, counter(MetricsRegistry.THREATS, "type", ThreatType.ACTIVE_CONTENT.name()));
+    assertEquals(1, counter(MetricsRegistry.FILES, "depth", "1"));
+    assertEquals(1, counter(MetricsRegistry.BUFFERS, "storage", "memory"));
+    assertEquals(100, counter(MetricsRegistry.BUFFER_BYTES, "storage", "memory"));
+  }
+
+  @Test
+  void nothingIsRecordedOnceUnregistered() throws BleachException {
+    Metrics.register(null);
+    BleachSession session = new BleachSession(new CompositeBleach(new CopyBleach()));
+    session.sanitize(new ByteArrayInputStream(new byte[100]), new ByteArrayOutputStream());
+
+    assertEquals(0, counter(MetricsRegistry.THREATS, "type", ThreatType.ACTIVE_CONTENT.name()));
+  }
+
+  @Test
+  void functionCountersAreReadOnDemand() {
+    AtomicLong hits = new AtomicLong();
+    registry.functionCounter("cache_hits_total", "Cache hits", hits::get);
+    hits.addAndGet(3);
+
+    Family family = registry.getFamilies().stream()
+        .filter(f -> f.getName().equals("cache_hits_total"))
+        .findFirst()
+        .orElseThrow(AssertionError::new);
+    assertEquals(MetricsRegistry.Type.COUNTER, family.getType());
+    assertEquals(3, ((FunctionCounter) family.getMetrics().iterator().next()).getValue());
+  }
+
+  private long counter(String name, String... labels) {
+    Counter counter = registry.counter(name, "", labels);
+    return counter.getValue();
+  }
+
+  /**
+   * Records a threat, and copies the file.
+   */
+  private static class CopyBleach implements Bleach {
+
+    @Override
+    public boolean handlesMagic(InputStream stream) {
+      return true;
+    }
+
+    @Override
+    public String getName() {
+      return "Copy";
+    }
+
+    @Override
+    public void sanitize(InputStream inputStream, OutputStream outputStream,
+        BleachSession session) throws BleachException {
+      session.recordThreat(Threat.builder()
+          .type(ThreatType.ACTIVE_CONTENT)
+          .severity(ThreatSeverity.LOW)
+          .action(ThreatAction.NOTHING)
+          .location("file")
+          .details("Copied")
+          .build());
+      try {
+        StreamUtils.copy(inputStream, outputStream);
+      } catch (IOException e) {
+        throw new BleachException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package xyz.docbleach.api.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import org.junit.jupiter.api.Test;
+
+class StageBufferTest {
+
+  private static final byte[] CONTENT = "Hello, DocBleach!".getBytes();
+
+  @Test
+  void smallContentStaysInMemory() throws IOException {
+    StageBuffer buffer = new StageBuffer(1024);
+    buffer.write(CONTENT);
+
+    assertFalse(buffer.isSpilled());
+    assertEquals(CONTENT.length, buffer.size());
+    assertArrayEquals(CONTENT, readAll(buffer.getInputStream()));
+
+    buffer.release();
+  }
+
+  @Test
+  void largeContentIsSpilledToDisk() throws IOException {
+    StageBuffer buffer = new StageBuffer(4);
+    buffer.write(CONTENT, 0, 3);
+    assertFalse(buffer.isSpilled());
+    buffer.write(CONTENT, 3, CONTENT.length - 3);
+    assertTrue(buffer.isSpilled());
+
+    File file = buffer.getFile();
+    assertNotNull(file);
+    assertTrue(file.exists());
+
+    InputStream is = buffer.getInputStream();
+    assertTrue(is.markSupported());
+    assertArrayEquals(CONTENT, readAll(is));
+
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    buffer.writeTo(os);
+    assertArrayEquals(CONTENT, os.toByteArray());
+
+    buffer.release();
+    assertFalse(file.exists(), "The temporary file is deleted");
+  }
+
+  @Test
+  void closingOnlyEndsTheWrites() throws IOException {
+    StageBuffer buffer = new StageBuffer(1024);
+    buffer.write(CONTENT);
+    buffer.close();
+
+    assertThrows(IOException.class, () -> buffer.write(1));
+    assertArrayEquals(CONTENT, readAll(buffer.getInputStream()));
+
+    buffer.release();
+    assertThrows(IOException.class, buffer::getInputStream);
+  }
+
+  private static byte[] readAll(InputStream is) throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    StreamUtils.copy(is, os);
+    return os.toByteArray();
+  }
+}
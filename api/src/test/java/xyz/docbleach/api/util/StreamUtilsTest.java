@@ -0,0 +1,108 @@
+package xyz.docbleach.api.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.Test;
+
+class StreamUtilsTest {
+
+  private static final byte[] CONTENT = randomBytes(200 * 1024);
+
+  @Test
+  void copiesStreamsLargerThanTheBuffer() throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    long before = StreamUtils.getCopiedBytes();
+
+    assertEquals(CONTENT.length, StreamUtils.copy(new ByteArrayInputStream(CONTENT), os));
+    assertArrayEquals(CONTENT, os.toByteArray());
+    assertTrue(StreamUtils.getCopiedBytes() - before >= CONTENT.length);
+  }
+
+  @Test
+  void readsTheFirstZipEntryName() throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (ZipOutputStream zipOut = new ZipOutputStream(bos)) {
+      zipOut.putNextEntry(new ZipEntry("[Content_Types].xml"));
+      zipOut.putNextEntry(new ZipEntry("word/document.xml"));
+    }
+    InputStream is = new ByteArrayInputStream(bos.toByteArray());
+
+    assertTrue(StreamUtils.hasFirstZipEntry(is, "[Content_Types].xml"));
+    assertFalse(StreamUtils.hasFirstZipEntry(is, "word/document.xml"));
+    assertFalse(StreamUtils.hasFirstZipEntry(is, "[Content_Types].xm"));
+    assertFalse(StreamUtils.hasFirstZipEntry(new ByteArrayInputStream(CONTENT), "a"));
+    // The stream is rewound
+    assertEquals('P', is.read());
+  }
+
+  @Test
+  void transfersFilesFromTheLogicalPosition() throws IOException {
+    File in = File.createTempFile("docbleach-test", ".bin");
+    File out = File.createTempFile("docbleach-test", ".bin");
+    try {
+      Files.write(in.toPath(), CONTENT);
+
+      try (FileBackedInputStream is = new FileBackedInputStream(in);
+          OutputStream os = new FileOutputStream(out)) {
+        // Fills the stream's buffer, and consumes a few bytes of it
+        StreamUtils.peekHeader(is, 4);
+        assertEquals(CONTENT[0], (byte) is.read());
+
+        assertEquals(CONTENT.length - 1, StreamUtils.copy(new CloseShieldInputStream(is), os));
+        assertEquals(-1, is.read());
+      }
+
+      byte[] copied = Files.readAllBytes(out.toPath());
+      assertEquals(CONTENT.length - 1, copied.length);
+      assertEquals(CONTENT[1], copied[0]);
+      assertEquals(CONTENT[CONTENT.length - 1], copied[copied.length - 1]);
+    } finally {
+      assertTrue(in.delete());
+      assertTrue(out.delete());
+    }
+  }
+
+  @Test
+  void nestedCopiesUseTheirOwnBuffer() throws IOException {
+    // Copies another stream each time it is read, as a decoding stream could
+    InputStream nesting = new InputStream() {
+      private final InputStream content = new ByteArrayInputStream(CONTENT);
+
+      @Override
+      public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        StreamUtils.copy(new ByteArrayInputStream(new byte[64]), new ByteArrayOutputStream());
+        return content.read(b, off, len);
+      }
+    };
+
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    StreamUtils.copy(nesting, os);
+    assertArrayEquals(CONTENT, os.toByteArray());
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(42).nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,49 @@
+package xyz.docbleach.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import xyz.docbleach.api.BleachSession;
+import xyz.docbleach.api.bleach.Bleach;
+import xyz.docbleach.api.bleach.DefaultBleach;
+import xyz.docbleach.api.exception.BleachException;
+
+/**
+ * Shared settings of the benchmarks: throughput and latency percentiles are measured, and the
+ * allocation rate is reported by the GC profiler (see {@link BenchmarkRunner}).
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public abstract class AbstractBleachBenchmark {
+
+  // The session is only used to dispatch nested files, it holds no state between runs
+  private static final Bleach SESSION_BLEACH = new DefaultBleach();
+
+  /**
+   * Sanitizes a document, as the CLI would.
+   *
+   * @param bleach the bleach to measure
+   * @param document the document's content
+   * @return the sanitized document, to be consumed by the benchmark
+   */
+  static byte[] sanitize(Bleach bleach, byte[] document) throws BleachException, IOException {
+    BleachSession session = new BleachSession(SESSION_BLEACH);
+    ByteArrayOutputStream os = new ByteArrayOutputStream(document.length);
+
+    try (InputStream is = new ByteArrayInputStream(document)) {
+      bleach.sanitize(is, os, session);
+    }
+    return os.toByteArray();
+  }
+}
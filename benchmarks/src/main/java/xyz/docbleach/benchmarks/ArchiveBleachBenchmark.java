@@ -0,0 +1,33 @@
+package xyz.docbleach.benchmarks;
+
+import java.io.IOException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import xyz.docbleach.api.exception.BleachException;
+import xyz.docbleach.module.zip.ArchiveBleach;
+
+@State(Scope.Benchmark)
+public class ArchiveBleachBenchmark extends AbstractBleachBenchmark {
+
+  @Param({"1", "5"})
+  public int depth;
+
+  @Param({"10"})
+  public int entries;
+
+  private final ArchiveBleach bleach = new ArchiveBleach();
+  private byte[] content;
+
+  @Setup
+  public void setUp() throws IOException {
+    content = Corpus.nestedZip(depth, entries);
+  }
+
+  @Benchmark
+  public byte[] sanitize() throws BleachException, IOException {
+    return sanitize(bleach, content);
+  }
+}
@@ -0,0 +1,253 @@
+package xyz.docbleach.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.interactive.action.PDActionJavaScript;
+import org.apache.pdfbox.pdmodel.interactive.action.PDPageAdditionalActions;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationLink;
+import org.apache.poi.hssf.usermodel.HSSFRow;
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackagePartName;
+import org.apache.poi.openxml4j.opc.PackagingURIHelper;
+import org.apache.poi.openxml4j.opc.TargetMode;
+import org.apache.poi.poifs.filesystem.DirectoryEntry;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+
+/**
+ * Generates the synthetic documents used by the benchmarks, so no sample file has to be
+ * distributed. Every document exists in a clean flavour and in a flavour full of threats, to
+ * measure both the fast path and the sanitation itself.
+ */
+final class Corpus {
+
+  private static final String VBA_PROJECT_RELATION =
+      "http://schemas.microsoft.com/office/2006/relationships/vbaProject";
+  private static final String VBA_PROJECT_CONTENT_TYPE = "application/vnd.ms-office.vbaProject";
+  private static final byte[] FAKE_VBA = new byte[16 * 1024];
+
+  private Corpus() {
+    throw new IllegalAccessError("Utility class");
+  }
+
+  /**
+   * @param paragraphs number of paragraphs in the document
+   * @param threats true to add a VBA project and DDEAUTO fields
+   * @return a Word document
+   */
+  static byte[] docx(int paragraphs, boolean threats) throws IOException {
+    try (XWPFDocument doc = new XWPFDocument()) {
+      for (int i = 0; i < paragraphs; i++) {
+        XWPFParagraph paragraph = doc.createParagraph();
+        XWPFRun run = paragraph.createRun();
+        run.setText("Paragraph #" + i + ": the quick brown fox jumps over the lazy dog.");
+
+        if (threats && i % 10 == 0) {
+          paragraph.createRun().getCTR().addNewInstrText()
+              .setStringValue(" DDEAUTO c:\\\\windows\\\\system32\\\\cmd.exe \"/k calc.exe\" ");
+        }
+      }
+
+      if (threats) {
+        addVbaProject(doc.getPackagePart());
+      }
+
+      return toBytes(doc::write);
+    }
+  }
+
+  /**
+   * @param rows number of rows in the only sheet of the workbook
+   * @param threats true to add a VBA project
+   * @return an Excel 2007+ workbook
+   */
+  static byte[] xlsx(int rows, boolean threats) throws IOException {
+    try (XSSFWorkbook wb = new XSSFWorkbook()) {
+      XSSFSheet sheet = wb.createSheet("Data");
+      for (int i = 0; i < rows; i++) {
+        XSSFRow row = sheet.createRow(i);
+        row.createCell(0).setCellValue(i);
+        row.createCell(1).setCellValue("Row #" + i);
+        row.createCell(2).setCellFormula("A" + (i + 1) + "*2");
+      }
+
+      if (threats) {
+        addVbaProject(wb.getPackagePart());
+      }
+
+      return toBytes(wb::write);
+    }
+  }
+
+  /**
+   * @param rows number of rows in the only sheet of the workbook
+   * @param threats true to add VBA storages, as a macro-enabled workbook would have
+   * @return an Excel 97 workbook
+   */
+  static byte[] xls(int rows, boolean threats) throws IOException {
+    byte[] workbook;
+    try (HSSFWorkbook wb = new HSSFWorkbook()) {
+      HSSFSheet sheet = wb.createSheet("Data");
+      for (int i = 0; i < rows; i++) {
+        HSSFRow row = sheet.createRow(i);
+        row.createCell(0).setCellValue(i);
+        row.createCell(1).setCellValue("Row #" + i);
+      }
+      workbook = toBytes(wb::write);
+    }
+
+    try (POIFSFileSystem fs = new POIFSFileSystem(new ByteArrayInputStream(workbook))) {
+      if (threats) {
+        DirectoryEntry vba = fs.getRoot().createDirectory("_VBA_PROJECT_CUR");
+        vba.createDocument("PROJECT", new ByteArrayInputStream(FAKE_VBA));
+        vba.createDirectory("VBA").createDocument("dir", new ByteArrayInputStream(FAKE_VBA));
+        fs.getRoot().createDirectory("ObjectPool")
+            .createDocument("\u0001CompObj", new ByteArrayInputStream(FAKE_VBA));
+      }
+
+      return toBytes(fs::writeFilesystem);
+    }
+  }
+
+  /**
+   * @param pages number of pages of the document
+   * @param threats true to add JavaScript actions on the document, its pages and links
+   * @return a PDF document
+   */
+  static byte[] pdf(int pages, boolean threats) throws IOException {
+    try (PDDocument doc = new PDDocument()) {
+      for (int i = 0; i < pages; i++) {
+        PDPage page = new PDPage(PDRectangle.A4);
+        doc.addPage(page);
+
+        try (PDPageContentStream content = new PDPageContentStream(doc, page)) {
+          content.beginText();
+          content.setFont(PDType1Font.HELVETICA, 12);
+          content.newLineAtOffset(72, 720);
+          content.showText("Page #" + i + ": the quick brown fox jumps over the lazy dog.");
+          content.endText();
+        }
+
+        if (threats) {
+          PDPageAdditionalActions actions = new PDPageAdditionalActions();
+          actions.setO(new PDActionJavaScript("app.alert('page " + i + "');"));
+          page.setActions(actions);
+
+          PDAnnotationLink link = new PDAnnotationLink();
+          link.setRectangle(new PDRectangle(72, 700, 100, 20));
+          link.setAction(new PDActionJavaScript("app.launchURL('http://example.com');"));
+          page.getAnnotations().add(link);
+        }
+      }
+
+      if (threats) {
+        doc.getDocumentCatalog().setOpenAction(new PDActionJavaScript("app.alert('open');"));
+      }
+
+      return toBytes(doc::save);
+    }
+  }
+
+  /**
+   * @param paragraphs number of paragraphs of the document
+   * @param objects number of embedded OLE objects
+   * @return a RTF document
+   */
+  static byte[] rtf(int paragraphs, int objects) {
+    StringBuilder rtf = new StringBuilder("{\\rtf1\\ansi\\deff0{\\fonttbl{\\f0 Arial;}}\r\n");
+    for (int i = 0; i < paragraphs; i++) {
+      rtf.append("{\\pard Paragraph #").append(i)
+          .append(": the quick brown fox jumps over the lazy dog.\\par}\r\n");
+
+      if (objects > 0 && i % Math.max(1, paragraphs / objects) == 0) {
+        rtf.append("{\\object\\objemb{\\*\\objclass Package}\\objw100\\objh100{\\*\\objdata ");
+        for (int j = 0; j < 64; j++) {
+          rtf.append("0102030405060708090a0b0c0d0e0f");
+        }
+        rtf.append("}}\r\n");
+      }
+    }
+    rtf.append("}\r\n");
+    return rtf.toString().getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * @param depth number of nested archives
+   * @param entries documents per archive level
+   * @return a zip archive, containing documents and the next level's archive
+   */
+  static byte[] nestedZip(int depth, int entries) throws IOException {
+    byte[] docx = docx(20, true);
+    byte[] rtf = rtf(20, 1);
+    byte[] inner = null;
+
+    for (int level = 0; level < depth; level++) {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      try (ZipOutputStream zip = new ZipOutputStream(bos)) {
+        for (int i = 0; i < entries; i++) {
+          addEntry(zip, "document" + i + ".docx", docx);
+          addEntry(zip, "document" + i + ".rtf", rtf);
+          addEntry(zip, "notes" + i + ".txt",
+              ("Level " + level + ", entry " + i).getBytes(StandardCharsets.US_ASCII));
+        }
+        if (inner != null) {
+          addEntry(zip, "level" + (level - 1) + ".zip", inner);
+        }
+      }
+      inner = bos.toByteArray();
+    }
+
+    return inner;
+  }
+
+  private static void addEntry(ZipOutputStream zip, String name, byte[] content)
+      throws IOException {
+    zip.putNextEntry(new ZipEntry(name));
+    zip.write(content);
+    zip.closeEntry();
+  }
+
+  private static void addVbaProject(PackagePart mainPart) throws IOException {
+    try {
+      PackagePartName name = PackagingURIHelper.createPartName(
+          mainPart.getPartName().getURI().resolve("vbaProject.bin"));
+      PackagePart vba = mainPart.getPackage().createPart(name, VBA_PROJECT_CONTENT_TYPE);
+      try (OutputStream os = vba.getOutputStream()) {
+        os.write(FAKE_VBA);
+      }
+      mainPart.addRelationship(name, TargetMode.INTERNAL, VBA_PROJECT_RELATION);
+    } catch (InvalidFormatException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static byte[] toBytes(Writer writer) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    writer.write(bos);
+    return bos.toByteArray();
+  }
+
+  @FunctionalInterface
+  private interface Writer {
+
+    void write(OutputStream os) throws IOException;
+  }
+}
@@ -0,0 +1,54 @@
+package xyz.docbleach.benchmarks;
+
+import java.io.IOException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import xyz.docbleach.api.bleach.DefaultBleach;
+import xyz.docbleach.api.exception.BleachException;
+
+/**
+ * Measures the whole pipeline, as used by the CLI: detection, then every matching bleach.
+ */
+@State(Scope.Benchmark)
+public class DefaultBleachBenchmark extends AbstractBleachBenchmark {
+
+  @Param({"docx", "docm", "xls", "pdf", "rtf", "zip"})
+  public String document;
+
+  private final DefaultBleach bleach = new DefaultBleach();
+  private byte[] content;
+
+  @Setup
+  public void setUp() throws IOException {
+    switch (document) {
+      case "docx":
+        content = Corpus.docx(200, false);
+        break;
+      case "docm":
+        content = Corpus.docx(200, true);
+        break;
+      case "xls":
+        content = Corpus.xls(5_000, true);
+        break;
+      case "pdf":
+        content = Corpus.pdf(50, true);
+        break;
+      case "rtf":
+        content = Corpus.rtf(5_000, 10);
+        break;
+      case "zip":
+        content = Corpus.nestedZip(3, 5);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown document: " + document);
+    }
+  }
+
+  @Benchmark
+  public byte[] sanitize() throws BleachException, IOException {
+    return sanitize(bleach, content);
+  }
+}
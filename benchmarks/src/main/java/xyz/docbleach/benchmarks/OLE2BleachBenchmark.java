@@ -0,0 +1,33 @@
+package xyz.docbleach.benchmarks;
+
+import java.io.IOException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import xyz.docbleach.api.exception.BleachException;
+import xyz.docbleach.module.ole2.OLE2Bleach;
+
+@State(Scope.Benchmark)
+public class OLE2BleachBenchmark extends AbstractBleachBenchmark {
+
+  @Param({"clean-xls", "macro-xls"})
+  public String document;
+
+  @Param({"1000", "20000"})
+  public int rows;
+
+  private final OLE2Bleach bleach = new OLE2Bleach();
+  private byte[] content;
+
+  @Setup
+  public void setUp() throws IOException {
+    content = Corpus.xls(rows, "macro-xls".equals(document));
+  }
+
+  @Benchmark
+  public byte[] sanitize() throws BleachException, IOException {
+    return sanitize(bleach, content);
+  }
+}
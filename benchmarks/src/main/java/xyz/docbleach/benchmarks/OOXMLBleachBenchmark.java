@@ -0,0 +1,45 @@
+package xyz.docbleach.benchmarks;
+
+import java.io.IOException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import xyz.docbleach.api.exception.BleachException;
+import xyz.docbleach.module.ooxml.OOXMLBleach;
+
+@State(Scope.Benchmark)
+public class OOXMLBleachBenchmark extends AbstractBleachBenchmark {
+
+  @Param({"clean-docx", "macro-docm", "clean-xlsx", "macro-xlsm"})
+  public String document;
+
+  private final OOXMLBleach bleach = new OOXMLBleach();
+  private byte[] content;
+
+  @Setup
+  public void setUp() throws IOException {
+    switch (document) {
+      case "clean-docx":
+        content = Corpus.docx(500, false);
+        break;
+      case "macro-docm":
+        content = Corpus.docx(500, true);
+        break;
+      case "clean-xlsx":
+        content = Corpus.xlsx(10_000, false);
+        break;
+      case "macro-xlsm":
+        content = Corpus.xlsx(10_000, true);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown document: " + document);
+    }
+  }
+
+  @Benchmark
+  public byte[] sanitize() throws BleachException, IOException {
+    return sanitize(bleach, content);
+  }
+}
@@ -0,0 +1,33 @@
+package xyz.docbleach.benchmarks;
+
+import java.io.IOException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import xyz.docbleach.api.exception.BleachException;
+import xyz.docbleach.module.pdf.PdfBleach;
+
+@State(Scope.Benchmark)
+public class PdfBleachBenchmark extends AbstractBleachBenchmark {
+
+  @Param({"false", "true"})
+  public boolean javascript;
+
+  @Param({"10", "500"})
+  public int pages;
+
+  private final PdfBleach bleach = new PdfBleach();
+  private byte[] content;
+
+  @Setup
+  public void setUp() throws IOException {
+    content = Corpus.pdf(pages, javascript);
+  }
+
+  @Benchmark
+  public byte[] sanitize() throws BleachException, IOException {
+    return sanitize(bleach, content);
+  }
+}
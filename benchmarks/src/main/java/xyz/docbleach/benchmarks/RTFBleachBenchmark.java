@@ -0,0 +1,33 @@
+package xyz.docbleach.benchmarks;
+
+import java.io.IOException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import xyz.docbleach.api.exception.BleachException;
+import xyz.docbleach.module.rtf.RTFBleach;
+
+@State(Scope.Benchmark)
+public class RTFBleachBenchmark extends AbstractBleachBenchmark {
+
+  @Param({"0", "50"})
+  public int objects;
+
+  @Param({"1000", "50000"})
+  public int paragraphs;
+
+  private final RTFBleach bleach = new RTFBleach();
+  private byte[] content;
+
+  @Setup
+  public void setUp() {
+    content = Corpus.rtf(paragraphs, objects);
+  }
+
+  @Benchmark
+  public byte[] sanitize() throws BleachException, IOException {
+    return sanitize(bleach, content);
+  }
+}
@@ -4,7 +4,6 @@ import com.google.gson.Gson;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -26,15 +25,20 @@ import org.slf4j.impl.SimpleLogger;
 import xyz.docbleach.api.BleachSession;
 import xyz.docbleach.api.bleach.DefaultBleach;
 import xyz.docbleach.api.exception.BleachException;
+import xyz.docbleach.api.cache.BleachCache;
+import xyz.docbleach.api.cache.DiskBleachCache;
+import xyz.docbleach.api.util.FileBackedInputStream;
 
 @SuppressFBWarnings(value = "DM_EXIT", justification = "Used as an app, an exit code is expected")
 public class Main {
 
   private static Logger LOGGER = null;
+  private static final long CACHE_SIZE = 1024L * 1024L * 1024L; // 1GB
   private int verbosityLevel = 0;
   private InputStream inputStream;
   private OutputStream outputStream;
   private boolean jsonOutput;
+  private BleachCache cache;
 
   private Main() {
     // Prevent instantiation from the outside worlds
@@ -76,9 +80,12 @@ public class Main {
    * Sanitizes the designated files
    */
   private void sanitize() throws BleachException {
-    BleachSession session = new BleachSession(new DefaultBleach());
+    BleachSession session = new BleachSession(new DefaultBleach(), cache);
 
     session.sanitize(inputStream, outputStream);
+    if (cache != null) {
+      LOGGER.debug("Cache: {}", cache.getStatistics());
+    }
 
     if (jsonOutput) {
       Gson gson = new Gson();
@@ -145,6 +152,12 @@ public class Main {
     options.addOption("v", false, "enable verbose mode");
     options.addOption("vv", false, "enable debug mode");
     options.addOption("json", false, "enable json output mode");
+    options.addOption(
+        Option.builder("cache")
+            .desc("Directory storing the sanitized files, to reuse them for identical inputs")
+            .hasArg()
+            .argName("DIR")
+            .build());
 
     CommandLineParser parser = new DefaultParser();
     CommandLine cmd;
@@ -175,6 +188,16 @@ public class Main {
 
     String outName = cmd.getOptionValue("out");
     makeOutputStream(outName);
+
+    if (cmd.hasOption("cache")) {
+      makeCache(cmd.getOptionValue("cache"));
+    }
+  }
+
+  @SuppressFBWarnings(value = "PATH_TRAVERSAL_IN", justification = "Wanted user input")
+  private void makeCache(String directory) throws IOException {
+    LOGGER.debug("Using cache directory : {}", directory);
+    cache = new DiskBleachCache(new File(directory), CACHE_SIZE);
   }
 
   /**
@@ -227,6 +250,7 @@ public class Main {
       throw new FileNotFoundException("I can't read the Input File. Quitting.");
     }
 
-    return new BufferedInputStream(new FileInputStream(inFile));
+    // Bleaches may read the file directly, instead of copying the stream
+    return new FileBackedInputStream(inFile);
   }
 }
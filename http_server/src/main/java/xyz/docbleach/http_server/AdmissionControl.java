@@ -0,0 +1,223 @@
+package xyz.docbleach.http_server;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import xyz.docbleach.api.bleach.Bleach;
+
+/**
+ * Decides whether a sanitation may start, so the server rejects work it can not handle instead of
+ * queueing it forever.
+ *
+ * <p>Three limits apply: the number of requests admitted (being sanitized, or waiting for a worker),
+ * the number of files being sanitized at the same time, whether they were sent alone or in a batch,
+ * and the number of files of a given format being sanitized at the same time. A format is named
+ * after the bleach handling it, in lower case and without the "Bleach" suffix: "pdf", "office",
+ * "ole2", "rtf", "zip". Files no bleach handles are in the "other" format.
+ *
+ * <p>The limits are read from the environment:
+ * <ul>
+ * <li>{@code DOCBLEACH_WORKERS}: size of the worker pool, defaults to the number of CPUs</li>
+ * <li>{@code DOCBLEACH_QUEUE_SIZE}: requests waiting for a worker, defaults to twice the number
+ * of workers</li>
+ * <li>{@code DOCBLEACH_FORMAT_LIMITS}: files sanitized at the same time per format, such as
+ * "pdf=2,office=2". PDF and Office files default to half the workers</li>
+ * <li>{@code DOCBLEACH_RETRY_AFTER}: seconds the client should wait before retrying, defaults to
+ * 5</li>
+ * </ul>
+ */
+class AdmissionControl {
+
+  static final String OTHER_FORMAT = "other";
+  private static final Logger LOGGER = LoggerFactory.getLogger(AdmissionControl.class);
+  private static final String BLEACH_SUFFIX = " bleach";
+
+  private final int workers;
+  private final int maxAdmitted;
+  private final int retryAfter;
+  private final AtomicInteger admitted = new AtomicInteger();
+  private final Semaphore workerPermits;
+  private final Map<String, Semaphore> formatPermits = new HashMap<>();
+
+  /**
+   * @param workers number of threads sanitizing files
+   * @param queueSize number of requests waiting for a worker
+   * @param formatLimits files sanitized at the same time, per format. Formats not listed are only
+   * limited by the number of workers
+   * @param retryAfter seconds the client should wait before retrying, once rejected
+   */
+  AdmissionControl(int workers, int queueSize, Map<String, Integer> formatLimits,
+      int retryAfter) {
+    this.workers = Math.max(1, workers);
+    this.maxAdmitted = this.workers + Math.max(0, queueSize);
+    this.retryAfter = Math.max(0, retryAfter);
+    this.workerPermits = new Semaphore(this.workers);
+
+    for (Map.Entry<String, Integer> limit : formatLimits.entrySet()) {
+      formatPermits.put(limit.getKey().toLowerCase(Locale.ROOT),
+          new Semaphore(Math.max(1, limit.getValue())));
+    }
+  }
+
+  static AdmissionControl fromEnvironment() {
+    int workers =
+        Environment.getInt("DOCBLEACH_WORKERS", Runtime.getRuntime().availableProcessors());
+    int queueSize = Environment.getInt("DOCBLEACH_QUEUE_SIZE", 2 * workers);
+    int retryAfter = Environment.getInt("DOCBLEACH_RETRY_AFTER", 5);
+
+    // Parsing and rendering PDF and Office files is much heavier than the other formats
+    Map<String, Integer> formatLimits = new HashMap<>();
+    formatLimits.put("pdf", Math.max(1, workers / 2));
+    formatLimits.put("office", Math.max(1, workers / 2));
+    formatLimits.putAll(parseFormatLimits(System.getenv("DOCBLEACH_FORMAT_LIMITS")));
+
+    LOGGER.info("Sanitizing with {} workers, {} queued requests, format limits: {}", workers,
+        queueSize, formatLimits);
+    return new AdmissionControl(workers, queueSize, formatLimits, retryAfter);
+  }
+
+  static Map<String, Integer> parseFormatLimits(String value) {
+    Map<String, Integer> limits = new HashMap<>();
+    if (value == null || value.isEmpty()) {
+      return limits;
+    }
+
+    for (String limit : value.split(",")) {
+      String[] parts = limit.split("=", 2);
+      try {
+        limits.put(parts[0].trim().toLowerCase(Locale.ROOT), Integer.valueOf(parts[1].trim()));
+      } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+        LOGGER.error("Invalid format limit '{}' defined in environment, ignoring it.", limit);
+      }
+    }
+    return limits;
+  }
+
+  /**
+   * @param candidates the bleaches able to handle a file
+   * @return the format of the file, named after the first bleach
+   */
+  static String formatOf(List<Bleach> candidates) {
+    if (candidates.isEmpty()) {
+      return OTHER_FORMAT;
+    }
+
+    String name = candidates.get(0).getName().toLowerCase(Locale.ROOT);
+    if (name.endsWith(BLEACH_SUFFIX)) {
+      name = name.substring(0, name.length() - BLEACH_SUFFIX.length());
+    }
+    return name;
+  }
+
+  int getWorkers() {
+    return workers;
+  }
+
+  /**
+   * @return seconds the client should wait before retrying, once rejected
+   */
+  int getRetryAfter() {
+    return retryAfter;
+  }
+
+  /**
+   * Admits a request, unless every worker is busy and the queue is full. Admitted requests have to
+   * {@link #leave() leave} once done.
+   *
+   * @return true if the request may be sanitized
+   */
+  boolean tryEnter() {
+    int current;
+    do {
+      current = admitted.get();
+      if (current >= maxAdmitted) {
+        return false;
+      }
+    } while (!admitted.compareAndSet(current, current + 1));
+    return true;
+  }
+
+  void leave() {
+    admitted.decrementAndGet();
+  }
+
+  /**
+   * @return the number of requests admitted, and not done yet
+   */
+  int getAdmitted() {
+    return admitted.get();
+  }
+
+  /**
+   * Reserves a worker to sanitize a file, waiting for one to be free. Each file holds one while it
+   * is sanitized: the files of a batch are sanitized by the same workers as the other requests.
+   *
+   * @return the worker, to be closed once the file is sanitized
+   * @throws InterruptedException if interrupted while waiting
+   */
+  Permit awaitWorker() throws InterruptedException {
+    workerPermits.acquire();
+    return workerPermits::release;
+  }
+
+  /**
+   * Reserves a slot to sanitize a file of the given format, without waiting.
+   *
+   * @param format the file's format, see {@link #formatOf(List)}
+   * @return the slot, to be closed once the file is sanitized
+   * @throws RejectedException if too many files of this format are being sanitized
+   */
+  Permit acquireFormat(String format) throws RejectedException {
+    Semaphore permits = formatPermits.get(format);
+    if (permits == null) {
+      return () -> {
+      };
+    }
+    if (!permits.tryAcquire()) {
+      throw new RejectedException("Too many " + format + " files are being sanitized");
+    }
+    return permits::release;
+  }
+
+  /**
+   * Reserves a slot to sanitize a file of the given format, waiting for one to be free. Used when
+   * the request was admitted already, and can not be rejected anymore.
+   *
+   * @param format the file's format, see {@link #formatOf(List)}
+   * @return the slot, to be closed once the file is sanitized
+   * @throws InterruptedException if interrupted while waiting
+   */
+  Permit awaitFormat(String format) throws InterruptedException {
+    Semaphore permits = formatPermits.get(format);
+    if (permits == null) {
+      return () -> {
+      };
+    }
+    permits.acquire();
+    return permits::release;
+  }
+
+  /**
+   * A reserved slot.
+   */
+  interface Permit extends AutoCloseable {
+
+    @Override
+    void close();
+  }
+
+  /**
+   * Thrown when a request would exceed the server's limits.
+   */
+  static class RejectedException extends Exception {
+
+    RejectedException(String message) {
+      super(message);
+    }
+  }
+}
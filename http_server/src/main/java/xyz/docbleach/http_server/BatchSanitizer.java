@@ -0,0 +1,302 @@
+package xyz.docbleach.http_server;
+
+import com.google.gson.Gson;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import xyz.docbleach.api.BleachSession;
+import xyz.docbleach.api.bleach.CompositeBleach;
+import xyz.docbleach.api.cache.BleachCache;
+import xyz.docbleach.api.exception.BleachException;
+import xyz.docbleach.api.threat.Threat;
+import xyz.docbleach.api.util.BleachExecutors;
+import xyz.docbleach.api.util.FileBackedInputStream;
+import xyz.docbleach.api.util.StageBuffer;
+import xyz.docbleach.http_server.AdmissionControl.Permit;
+
+/**
+ * Sanitizes several files at the same time, and writes them to a zip archive in their original
+ * order. The archive ends with a {@value #MANIFEST_NAME} entry, listing the threats removed from
+ * each file.
+ */
+class BatchSanitizer {
+
+  static final String MANIFEST_NAME = "manifest.json";
+  private static final Logger LOGGER = LoggerFactory.getLogger(BatchSanitizer.class);
+  private static final Gson GSON = new Gson();
+
+  private final CompositeBleach bleach;
+  private final BleachCache cache;
+  private final AdmissionControl admission;
+  private final int concurrency;
+
+  /**
+   * @param bleach the bleach applied to every file
+   * @param cache results of previous sanitations, may be null
+   * @param admission limits the files sanitized at the same time, in total and per format
+   * @param concurrency maximum number of files of a batch sanitized at the same time
+   */
+  BatchSanitizer(CompositeBleach bleach, BleachCache cache, AdmissionControl admission,
+      int concurrency) {
+    this.bleach = bleach;
+    this.cache = cache;
+    this.admission = admission;
+    this.concurrency = Math.max(1, concurrency);
+  }
+
+  /**
+   * Sanitizes the files, and writes the archive. The output stream is not closed.
+   *
+   * @param files the files to sanitize, named as the client sent them
+   * @param out the stream to write the archive to
+   * @throws IOException if a file could not be read, or the archive written
+   */
+  void sanitize(List<BatchFile> files, OutputStream out) throws IOException {
+    ZipOutputStream zip = new ZipOutputStream(out);
+    Deque<PendingFile> pending = new ArrayDeque<>();
+    List<FileReport> reports = new ArrayList<>();
+    Set<String> entryNames = new HashSet<>();
+    entryNames.add(MANIFEST_NAME);
+
+    try {
+      for (BatchFile file : files) {
+        String entryName = uniqueName(entryNames, file.name);
+        pending.add(new PendingFile(file, entryName, submit(file)));
+
+        while (pending.size() >= concurrency) {
+          reports.add(writePending(zip, pending.removeFirst()));
+        }
+      }
+
+      while (!pending.isEmpty()) {
+        reports.add(writePending(zip, pending.removeFirst()));
+      }
+
+      zip.putNextEntry(new ZipEntry(MANIFEST_NAME));
+      zip.write(GSON.toJson(new Manifest(reports)).getBytes(StandardCharsets.UTF_8));
+      zip.closeEntry();
+      zip.finish();
+    } finally {
+      for (PendingFile file : pending) {
+        file.discard();
+      }
+    }
+  }
+
+  /**
+   * Waits for a slot for the file's format and for a worker, then sanitizes the file on a worker.
+   * The slots are taken here so workers never wait for each other: a worker holding a slot may
+   * need other workers, to sanitize nested files.
+   */
+  private Future<SanitizedFile> submit(BatchFile file) throws IOException {
+    InputStream is = new FileBackedInputStream(file.file);
+    try {
+      Permit format = admission.awaitFormat(AdmissionControl.formatOf(bleach.detect(is)));
+      Permit worker;
+      try {
+        worker = admission.awaitWorker();
+      } catch (InterruptedException | RuntimeException e) {
+        format.close();
+        throw e;
+      }
+
+      Permit permit = () -> {
+        worker.close();
+        format.close();
+      };
+      try {
+        return BleachExecutors.submit(() -> sanitize(file, is, permit));
+      } catch (RuntimeException e) {
+        permit.close();
+        throw e;
+      }
+    } catch (InterruptedException e) {
+      is.close();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting to sanitize " + file.name);
+    } catch (RuntimeException e) {
+      is.close();
+      throw e;
+    }
+  }
+
+  private SanitizedFile sanitize(BatchFile file, InputStream input, Permit permit)
+      throws IOException {
+    BleachSession session = new BleachSession(bleach, cache);
+    StageBuffer output = new StageBuffer();
+
+    try (InputStream is = input;
+        Permit p = permit) {
+      session.sanitize(is, output);
+      return new SanitizedFile(session, output, null);
+    } catch (BleachException e) {
+      LOGGER.error("Could not sanitize '{}'", file.name, e);
+      output.release();
+      return new SanitizedFile(session, null, e.getMessage());
+    } catch (IOException | RuntimeException e) {
+      output.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Waits for the oldest file, and writes it to the archive.
+   *
+   * @return the file's manifest entry
+   */
+  private FileReport writePending(ZipOutputStream zip, PendingFile pending) throws IOException {
+    SanitizedFile result;
+    try {
+      result = pending.result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while sanitizing " + pending.file.name);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+
+    if (result.output == null) {
+      return new FileReport(pending.file.name, null, result.session.getThreats(), result.error);
+    }
+
+    try {
+      zip.putNextEntry(new ZipEntry(pending.entryName));
+      result.output.writeTo(zip);
+      zip.closeEntry();
+    } finally {
+      result.output.release();
+    }
+    LOGGER.info("Sanitation for '{}': {} potential threats removed", pending.file.name,
+        result.session.threatCount());
+    return new FileReport(pending.file.name, pending.entryName, result.session.getThreats(), null);
+  }
+
+  /**
+   * Keeps the last part of the client's file name, and makes it unique in the archive.
+   */
+  private static String uniqueName(Set<String> entryNames, String fileName) {
+    String name = fileName == null ? "" : fileName;
+    name = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1);
+    if (name.isEmpty() || ".".equals(name) || "..".equals(name)) {
+      name = "file";
+    }
+
+    String unique = name;
+    for (int i = 1; !entryNames.add(unique); i++) {
+      unique = i + "_" + name;
+    }
+    return unique;
+  }
+
+  /**
+   * A file uploaded by the client.
+   */
+  static class BatchFile {
+
+    private final String name;
+    private final File file;
+
+    /**
+     * @param name the file name sent by the client
+     * @param file the uploaded file
+     */
+    BatchFile(String name, File file) {
+      this.name = name;
+      this.file = file;
+    }
+  }
+
+  private static class SanitizedFile {
+
+    private final BleachSession session;
+    /**
+     * Null if the file could not be sanitized
+     */
+    private final StageBuffer output;
+    private final String error;
+
+    SanitizedFile(BleachSession session, StageBuffer output, String error) {
+      this.session = session;
+      this.output = output;
+      this.error = error;
+    }
+  }
+
+  private static class PendingFile {
+
+    private final BatchFile file;
+    private final String entryName;
+    private final Future<SanitizedFile> result;
+
+    PendingFile(BatchFile file, String entryName, Future<SanitizedFile> result) {
+      this.file = file;
+      this.entryName = entryName;
+      this.result = result;
+    }
+
+    /**
+     * Frees the file's output, waiting for its worker so the output is not leaked.
+     */
+    void discard() {
+      try {
+        SanitizedFile sanitized = result.get();
+        if (sanitized.output != null) {
+          sanitized.output.release();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        LOGGER.debug("Discarded file {} failed", file.name, e);
+      }
+    }
+  }
+
+  /**
+   * Content of the manifest, serialized using Gson.
+   */
+  private static class Manifest {
+
+    private final List<FileReport> files;
+
+    Manifest(List<FileReport> files) {
+      this.files = files;
+    }
+  }
+
+  private static class FileReport {
+
+    private final String name;
+    /**
+     * Name of the sanitized file in the archive, null if it could not be sanitized
+     */
+    private final String entry;
+    private final Collection<Threat> threats;
+    private final String error;
+
+    FileReport(String name, String entry, Collection<Threat> threats, String error) {
+      this.name = name;
+      this.entry = entry;
+      this.threats = threats;
+      this.error = error;
+    }
+  }
+}
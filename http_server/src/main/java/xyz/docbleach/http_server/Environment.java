@@ -0,0 +1,34 @@
+package xyz.docbleach.http_server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the server's settings from environment variables.
+ */
+final class Environment {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(Environment.class);
+
+  private Environment() {
+    throw new IllegalAccessError("Utility class");
+  }
+
+  /**
+   * @param name the variable's name
+   * @param defaultValue used when the variable is not defined, or invalid
+   * @return the variable's value
+   */
+  static int getInt(String name, int defaultValue) {
+    String value = System.getenv(name);
+    if (value == null || value.isEmpty()) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      LOGGER.error("Invalid {} defined in environment, falling back to {}.", name, defaultValue);
+      return defaultValue;
+    }
+  }
+}
@@ -1,9 +1,13 @@
 package xyz.docbleach.http_server;
 
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Context;
 import io.vertx.core.Promise;
 import io.vertx.core.Handler;
+import io.vertx.core.WorkerExecutor;
 import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
 import io.vertx.ext.web.FileUpload;
 import io.vertx.ext.web.Router;
@@ -11,21 +15,106 @@ import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
 import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import xyz.docbleach.api.BleachSession;
+import xyz.docbleach.api.bleach.CompositeBleach;
 import xyz.docbleach.api.bleach.DefaultBleach;
+import xyz.docbleach.api.cache.BleachCache;
+import xyz.docbleach.api.cache.DiskBleachCache;
+import xyz.docbleach.api.cache.MemoryBleachCache;
+import xyz.docbleach.api.cache.TieredBleachCache;
 import xyz.docbleach.api.exception.BleachException;
+import xyz.docbleach.api.metrics.Metrics;
+import xyz.docbleach.api.metrics.MetricsRegistry;
+import xyz.docbleach.api.metrics.MetricsRegistry.Counter;
+import xyz.docbleach.api.util.FileBackedInputStream;
+import xyz.docbleach.api.util.StreamUtils;
+import xyz.docbleach.http_server.AdmissionControl.Permit;
+import xyz.docbleach.http_server.BatchSanitizer.BatchFile;
+import xyz.docbleach.http_server.AdmissionControl.RejectedException;
 
 public class Main extends AbstractVerticle {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(Main.class);
   private static final long BODY_LIMIT = 1024 * 1024 * 150; // Size limit: 150MB
+  // Request bytes kept in memory while the bleach is busy, per streamed request
+  private static final long STREAM_WINDOW = 1024 * 1024;
+  private static final int STREAM_CHUNK_SIZE = 64 * 1024;
+  private static final String WORKER_POOL_NAME = "docbleach-sanitizer";
+  // Shared by every instance of this verticle
+  private static final AdmissionControl ADMISSION = AdmissionControl.fromEnvironment();
+  private static final CompositeBleach BLEACH = new DefaultBleach();
+  private static final BleachCache CACHE = createCache();
+  private static final BatchSanitizer BATCH =
+      new BatchSanitizer(BLEACH, CACHE, ADMISSION, ADMISSION.getWorkers());
+  private static final MetricsRegistry METRICS = createMetrics();
+  private static final Counter REJECTED =
+      METRICS.counter("docbleach_rejected_requests_total", "Requests rejected with a 503");
+  private WorkerExecutor sanitizers;
+
+  /**
+   * Builds the results cache: in memory if DOCBLEACH_CACHE_MEMORY is set (in MB), and on disk if
+   * DOCBLEACH_CACHE_DIR is set (DOCBLEACH_CACHE_DISK MB, 1GB by default). Cached files are read
+   * back in memory, so each tier only keeps files up to DOCBLEACH_CACHE_ENTRY MB (4MB by default).
+   *
+   * @return the cache, or null if caching is disabled
+   */
+  private static BleachCache createCache() {
+    List<BleachCache> tiers = new ArrayList<>();
+    long entry = Environment.getInt("DOCBLEACH_CACHE_ENTRY",
+        (int) (MemoryBleachCache.DEFAULT_MAX_ENTRY_SIZE / 1024 / 1024)) * 1024L * 1024L;
+    long memory = Environment.getInt("DOCBLEACH_CACHE_MEMORY", 0) * 1024L * 1024L;
+    if (memory > 0) {
+      tiers.add(new MemoryBleachCache(memory, entry));
+    }
+
+    String directory = System.getenv("DOCBLEACH_CACHE_DIR");
+    if (directory != null && !directory.isEmpty()) {
+      long disk = Environment.getInt("DOCBLEACH_CACHE_DISK", 1024) * 1024L * 1024L;
+      try {
+        tiers.add(new DiskBleachCache(new File(directory), disk, entry));
+      } catch (IOException e) {
+        LOGGER.error("Could not use the cache directory, results will not be stored on disk.", e);
+      }
+    }
+
+    if (tiers.isEmpty()) {
+      return null;
+    }
+    LOGGER.info("Caching the results: {} MB in memory, directory: {}", memory / 1024 / 1024,
+        directory);
+    return tiers.size() == 1
+        ? tiers.get(0)
+        : new TieredBleachCache(tiers.toArray(new BleachCache[0]));
+  }
+
+  /**
+   * Records the bleaches' metrics, along with the server's, to be exposed on /metrics.
+   */
+  private static MetricsRegistry createMetrics() {
+    MetricsRegistry registry = new MetricsRegistry();
+    registry.gauge("docbleach_admitted_requests",
+        "Requests being sanitized or waiting for a worker", ADMISSION::getAdmitted);
+    registry.functionCounter("docbleach_copied_bytes_total", "Bytes copied between streams",
+        StreamUtils::getCopiedBytes);
+    if (CACHE != null) {
+      registry.functionCounter("docbleach_cache_hits_total", "Results found in the cache",
+          () -> CACHE.getStatistics().getHitCount());
+      registry.functionCounter("docbleach_cache_misses_total", "Results not found in the cache",
+          () -> CACHE.getStatistics().getMissCount());
+    }
+    Metrics.register(registry);
+    return registry;
+  }
 
   private static int getPortNumber() {
     int port = 8080;
@@ -40,11 +129,31 @@ public class Main extends AbstractVerticle {
     return port;
   }
 
-  public void start() {
-    HttpServer server = vertx.createHttpServer();
+  @Override
+  public void start(Promise<Void> startPromise) {
+    // Sanitations do not compete with the other blocking tasks, such as removing files
+    sanitizers = vertx.createSharedWorkerExecutor(WORKER_POOL_NAME, ADMISSION.getWorkers());
+    // Every instance listens on the same port: with a native transport, the kernel balances the
+    // connections between their event loops
+    HttpServer server = vertx.createHttpServer(new HttpServerOptions().setReusePort(true));
     Router router = Router.router(vertx);
-    router.route().handler(BodyHandler.create().setBodyLimit(BODY_LIMIT));
 
+    // The body is piped to the bleach: no BodyHandler, so nothing is written to disk
+    router.post("/sanitize/stream").handler(this::sanitizeStream);
+
+    router
+        .get("/metrics")
+        .handler(
+            routingContext ->
+                routingContext
+                    .response()
+                    .putHeader("Content-Type", PrometheusExporter.CONTENT_TYPE)
+                    .end(PrometheusExporter.export(METRICS)));
+
+    router.post("/sanitize/batch").handler(BodyHandler.create().setBodyLimit(BODY_LIMIT));
+    router.post("/sanitize/batch").handler(this::sanitizeBatch);
+
+    router.post("/sanitize").handler(BodyHandler.create().setBodyLimit(BODY_LIMIT));
     router
         .post("/sanitize")
         .handler(
@@ -65,7 +174,13 @@ public class Main extends AbstractVerticle {
 
                 LOGGER.info("UploadedFileName: {}", upload.fileName());
 
-                vertx.executeBlocking(
+                if (!ADMISSION.tryEnter()) {
+                  removeFiles(new File(upload.uploadedFileName()));
+                  rejectBusy(routingContext);
+                  return;
+                }
+
+                sanitizers.executeBlocking(
                     (Handler<Promise<File>>)
                         promise -> {
                           try {
@@ -73,9 +188,18 @@ public class Main extends AbstractVerticle {
                           } catch (IOException | BleachException e) {
                             LOGGER.error("Error", e);
                             promise.fail(e);
+                          } catch (RejectedException e) {
+                            promise.fail(e);
                           }
                         },
+                    false,
                     res -> {
+                      ADMISSION.leave();
+                      if (res.cause() instanceof RejectedException) {
+                        removeFiles(new File(upload.uploadedFileName()));
+                        rejectBusy(routingContext);
+                        return;
+                      }
                       if (!res.succeeded()) {
                         routingContext.fail(res.cause());
                         return;
@@ -101,11 +225,206 @@ public class Main extends AbstractVerticle {
               response.end("Hello from the light DocBleach Server!");
             });
 
-    server.requestHandler(router).listen(getPortNumber());
+    server
+        .requestHandler(router)
+        .listen(
+            getPortNumber(),
+            res -> {
+              if (res.succeeded()) {
+                startPromise.complete();
+              } else {
+                startPromise.fail(res.cause());
+              }
+            });
+  }
+
+  @Override
+  public void stop() {
+    sanitizers.close();
+  }
+
+  /**
+   * Sanitizes the raw request body, sending the result as it is produced. The request is read with
+   * backpressure, keeping at most {@link #STREAM_WINDOW} bytes in memory while the bleach is busy.
+   *
+   * <p>As the response is chunked, a failure after the first bytes were sent can only be reported
+   * by closing the connection.
+   */
+  private void sanitizeStream(RoutingContext routingContext) {
+    HttpServerRequest request = routingContext.request();
+    HttpServerResponse response = routingContext.response();
+    Context context = vertx.getOrCreateContext();
+
+    String fileName = request.getParam("filename");
+    if (fileName == null || fileName.isEmpty()) {
+      fileName = "file";
+    }
+    LOGGER.info("Streamed FileName: {}", fileName);
+
+    if (!ADMISSION.tryEnter()) {
+      rejectBusy(routingContext);
+      return;
+    }
+
+    ReadStreamInputStream is =
+        new ReadStreamInputStream(context, request, STREAM_WINDOW, BODY_LIMIT);
+    WriteStreamOutputStream os = new WriteStreamOutputStream(context, response, STREAM_CHUNK_SIZE);
+    response.closeHandler(
+        __ -> {
+          IOException closed = new IOException("The connection was closed");
+          is.abort(closed);
+          os.abort(closed);
+        });
+
+    putDownloadHeaders(response, fileName);
+    response.setChunked(true);
+
+    final String name = fileName;
+    sanitizers.executeBlocking(
+        (Handler<Promise<Integer>>)
+            promise -> {
+              BleachSession session = new BleachSession(BLEACH, CACHE);
+              // The format is detected by peeking at the header, which needs mark support
+              try (InputStream in = new BufferedInputStream(is);
+                  OutputStream out = os;
+                  Permit permit = acquireFormat(in);
+                  Permit worker = awaitWorker()) {
+                session.sanitize(in, out);
+                promise.complete(session.threatCount());
+              } catch (IOException | BleachException | RejectedException e) {
+                promise.fail(e);
+              }
+            },
+        false,
+        res -> {
+          ADMISSION.leave();
+          if (res.succeeded()) {
+            LOGGER.info(
+                "Sanitation for '{}': {} potential threats removed", name, res.result());
+            response.end();
+            return;
+          }
+
+          if (res.cause() instanceof RejectedException) {
+            rejectBusy(routingContext);
+            return;
+          }
+
+          LOGGER.error("Error", res.cause());
+          if (os.hasStarted()) {
+            // The headers are gone already, the client will notice the truncated response
+            response.close();
+            return;
+          }
+          response.headers().clear();
+          routingContext.fail(is.isLimitExceeded() ? 413 : 500);
+        });
+  }
+
+  /**
+   * Sanitizes every uploaded file, and answers with a zip archive of the sanitized files and a
+   * manifest of the threats removed. The archive is streamed while the next files are sanitized.
+   */
+  private void sanitizeBatch(RoutingContext routingContext) {
+    Set<FileUpload> uploads = routingContext.fileUploads();
+    if (uploads.isEmpty()) {
+      routingContext.fail(404);
+      return;
+    }
+
+    List<BatchFile> files = new ArrayList<>();
+    File[] uploadedFiles = new File[uploads.size()];
+    for (FileUpload upload : uploads) {
+      LOGGER.info("Batch FileName: {}", upload.fileName());
+      File file = new File(upload.uploadedFileName());
+      uploadedFiles[files.size()] = file;
+      files.add(new BatchFile(upload.fileName(), file));
+    }
+
+    if (!ADMISSION.tryEnter()) {
+      removeFiles(uploadedFiles);
+      rejectBusy(routingContext);
+      return;
+    }
+
+    HttpServerResponse response = routingContext.response();
+    WriteStreamOutputStream os =
+        new WriteStreamOutputStream(vertx.getOrCreateContext(), response, STREAM_CHUNK_SIZE);
+    response.closeHandler(__ -> os.abort(new IOException("The connection was closed")));
+
+    putDownloadHeaders(response, "sanitized.zip");
+    response.putHeader("Content-Type", "application/zip");
+    response.setChunked(true);
+
+    sanitizers.executeBlocking(
+        (Handler<Promise<Void>>)
+            promise -> {
+              try (OutputStream out = os) {
+                BATCH.sanitize(files, out);
+                promise.complete();
+              } catch (IOException e) {
+                promise.fail(e);
+              }
+            },
+        false,
+        res -> {
+          ADMISSION.leave();
+          removeFiles(uploadedFiles);
+          if (res.succeeded()) {
+            response.end();
+            return;
+          }
+
+          LOGGER.error("Error", res.cause());
+          if (os.hasStarted()) {
+            // The headers are gone already, the client will notice the truncated archive
+            response.close();
+            return;
+          }
+          response.headers().clear();
+          routingContext.fail(500);
+        });
+  }
+
+  private Permit acquireFormat(InputStream is) throws RejectedException {
+    return ADMISSION.acquireFormat(AdmissionControl.formatOf(BLEACH.detect(is)));
+  }
+
+  /**
+   * Waits for a worker, which may be busy with the files of a batch.
+   */
+  private static Permit awaitWorker() throws InterruptedIOException {
+    try {
+      return ADMISSION.awaitWorker();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a worker");
+    }
+  }
+
+  /**
+   * Answers a request the server is too busy to handle, before any byte of the response is sent.
+   */
+  private void rejectBusy(RoutingContext routingContext) {
+    LOGGER.warn("Too many sanitations in progress, rejecting the request");
+    REJECTED.increment();
+    HttpServerResponse response = routingContext.response();
+    response.headers().clear();
+    response
+        .setStatusCode(503)
+        .putHeader("Retry-After", String.valueOf(ADMISSION.getRetryAfter()))
+        .end();
   }
 
   private void sendFile(RoutingContext routingContext, String fileName, File saneFile) {
     HttpServerResponse response = routingContext.response();
+    putDownloadHeaders(response, fileName);
+    response.putHeader("Content-Length", "" + saneFile.length());
+
+    response.sendFile(saneFile.getAbsolutePath());
+  }
+
+  private void putDownloadHeaders(HttpServerResponse response, String fileName) {
     response.putHeader("Content-Description", "File Transfer");
     response.putHeader("Content-Type", "application/octet-stream");
     response.putHeader(
@@ -114,9 +433,6 @@ public class Main extends AbstractVerticle {
     response.putHeader("Expires", "0");
     response.putHeader("Pragma", "Public");
     response.putHeader("Cache-Control", "must-revalidate, post-check=0, pre-check=0");
-    response.putHeader("Content-Length", "" + saneFile.length());
-
-    response.sendFile(saneFile.getAbsolutePath());
   }
 
   private void removeFiles(File... files) {
@@ -132,13 +448,17 @@ public class Main extends AbstractVerticle {
         });
   }
 
-  private File sanitize(String uploadedFileName) throws IOException, BleachException {
-    BleachSession session = new BleachSession(new DefaultBleach());
+  private File sanitize(String uploadedFileName)
+      throws IOException, BleachException, RejectedException {
+    BleachSession session = new BleachSession(BLEACH, CACHE);
 
     File file = new File(uploadedFileName);
     file.deleteOnExit();
 
-    try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+    // Bleaches may read the file directly, instead of copying the stream
+    try (InputStream is = new FileBackedInputStream(file);
+        Permit permit = acquireFormat(is);
+        Permit worker = awaitWorker()) {
       File fstream = File.createTempFile("docbleach_", "");
       fstream.deleteOnExit();
       try (FileOutputStream os = new FileOutputStream(fstream)) {
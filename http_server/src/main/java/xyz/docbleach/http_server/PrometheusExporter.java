@@ -0,0 +1,102 @@
+package xyz.docbleach.http_server;
+
+import java.util.Locale;
+import java.util.Map;
+import xyz.docbleach.api.metrics.MetricsRegistry;
+import xyz.docbleach.api.metrics.MetricsRegistry.Counter;
+import xyz.docbleach.api.metrics.MetricsRegistry.Family;
+import xyz.docbleach.api.metrics.MetricsRegistry.FunctionCounter;
+import xyz.docbleach.api.metrics.MetricsRegistry.Gauge;
+import xyz.docbleach.api.metrics.MetricsRegistry.Metric;
+import xyz.docbleach.api.metrics.MetricsRegistry.Timer;
+
+/**
+ * Writes the metrics of a {@link MetricsRegistry} using the Prometheus text format (version
+ * 0.0.4). Timers are written as summaries in seconds, with their maximum in a "_max" gauge.
+ */
+class PrometheusExporter {
+
+  static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+  private static final double NANOS_PER_SECOND = 1e9;
+
+  private PrometheusExporter() {
+    throw new IllegalAccessError("Utility class");
+  }
+
+  static String export(MetricsRegistry registry) {
+    StringBuilder sb = new StringBuilder();
+    for (Family family : registry.getFamilies()) {
+      switch (family.getType()) {
+        case TIMER:
+          writeHeader(sb, family.getName(), family.getHelp(), "summary");
+          for (Metric metric : family.getMetrics()) {
+            Timer timer = (Timer) metric;
+            writeSample(sb, family.getName() + "_count", timer.getLabels(),
+                Long.toString(timer.getCount()));
+            writeSample(sb, family.getName() + "_sum", timer.getLabels(),
+                seconds(timer.getTotalNanos()));
+          }
+          writeHeader(sb, family.getName() + "_max", family.getHelp() + ", longest", "gauge");
+          for (Metric metric : family.getMetrics()) {
+            Timer timer = (Timer) metric;
+            writeSample(sb, family.getName() + "_max", timer.getLabels(),
+                seconds(timer.getMaxNanos()));
+          }
+          break;
+        case COUNTER:
+          writeHeader(sb, family.getName(), family.getHelp(), "counter");
+          for (Metric metric : family.getMetrics()) {
+            writeSample(sb, family.getName(), metric.getLabels(),
+                Long.toString(counterValue(metric)));
+          }
+          break;
+        default:
+          writeHeader(sb, family.getName(), family.getHelp(), "gauge");
+          for (Metric metric : family.getMetrics()) {
+            writeSample(sb, family.getName(), metric.getLabels(),
+                Long.toString(((Gauge) metric).getValue()));
+          }
+          break;
+      }
+    }
+    return sb.toString();
+  }
+
+  private static long counterValue(Metric metric) {
+    return metric instanceof FunctionCounter
+        ? ((FunctionCounter) metric).getValue()
+        : ((Counter) metric).getValue();
+  }
+
+  private static void writeHeader(StringBuilder sb, String name, String help, String type) {
+    sb.append("# HELP ").append(name).append(' ')
+        .append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+    sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private static void writeSample(StringBuilder sb, String name, Map<String, String> labels,
+      String value) {
+    sb.append(name);
+    if (!labels.isEmpty()) {
+      sb.append('{');
+      boolean first = true;
+      for (Map.Entry<String, String> label : labels.entrySet()) {
+        if (!first) {
+          sb.append(',');
+        }
+        first = false;
+        sb.append(label.getKey()).append("=\"").append(escape(label.getValue())).append('"');
+      }
+      sb.append('}');
+    }
+    sb.append(' ').append(value).append('\n');
+  }
+
+  private static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  private static String seconds(long nanos) {
+    return String.format(Locale.ROOT, "%.9f", nanos / NANOS_PER_SECOND);
+  }
+}
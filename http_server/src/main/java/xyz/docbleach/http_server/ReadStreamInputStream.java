@@ -0,0 +1,179 @@
+package xyz.docbleach.http_server;
+
+import io.vertx.core.Context;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Blocking view of a Vert.x {@link ReadStream}, to be read from a worker thread. At most {@code
+ * window} bytes are kept in memory: the stream is paused once they are received, and resumed when
+ * half of them have been read.
+ */
+class ReadStreamInputStream extends InputStream {
+
+  private final Context context;
+  private final ReadStream<Buffer> stream;
+  private final long window;
+  private final long limit;
+  private final Deque<Buffer> chunks = new ArrayDeque<>();
+  private long queuedBytes = 0;
+  private long receivedBytes = 0;
+  private boolean paused = false;
+  private boolean ended = false;
+  private boolean closed = false;
+  private boolean limitExceeded = false;
+  private IOException failure;
+  private Buffer current;
+  private int currentPosition;
+
+  /**
+   * Starts reading the stream. Has to be called from the stream's context.
+   *
+   * @param context the context the stream belongs to
+   * @param stream the stream to read
+   * @param window maximum number of bytes received but not read yet
+   * @param limit maximum number of bytes in the stream
+   */
+  ReadStreamInputStream(Context context, ReadStream<Buffer> stream, long window, long limit) {
+    this.context = context;
+    this.stream = stream;
+    this.window = window;
+    this.limit = limit;
+
+    stream.handler(this::onChunk);
+    stream.endHandler(v -> onEnd());
+    stream.exceptionHandler(this::abort);
+    stream.resume();
+  }
+
+  /**
+   * @return true if the stream was longer than the limit
+   */
+  synchronized boolean isLimitExceeded() {
+    return limitExceeded;
+  }
+
+  /**
+   * Fails the pending and future reads.
+   *
+   * @param cause the reason why the stream can not be read anymore
+   */
+  synchronized void abort(Throwable cause) {
+    if (failure == null) {
+      failure = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    }
+    notifyAll();
+  }
+
+  private synchronized void onChunk(Buffer chunk) {
+    if (closed || failure != null) {
+      return;
+    }
+
+    receivedBytes += chunk.length();
+    if (receivedBytes > limit) {
+      limitExceeded = true;
+      stream.pause();
+      abort(new IOException("The stream is larger than " + limit + " bytes"));
+      return;
+    }
+
+    chunks.add(chunk);
+    queuedBytes += chunk.length();
+    if (!paused && queuedBytes >= window) {
+      paused = true;
+      stream.pause();
+    }
+    notifyAll();
+  }
+
+  private synchronized void onEnd() {
+    ended = true;
+    notifyAll();
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+  }
+
+  @Override
+  public synchronized int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+
+    while (current == null) {
+      if (closed) {
+        throw new IOException("Stream closed");
+      }
+      if (failure != null) {
+        throw failure;
+      }
+
+      Buffer next = chunks.poll();
+      if (next != null) {
+        queuedBytes -= next.length();
+        resumeIfDrained();
+        if (next.length() > 0) {
+          current = next;
+          currentPosition = 0;
+        }
+        continue;
+      }
+
+      if (ended) {
+        return -1;
+      }
+
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for data");
+      }
+    }
+
+    int n = Math.min(len, current.length() - currentPosition);
+    current.getBytes(currentPosition, currentPosition + n, b, off);
+    currentPosition += n;
+    if (currentPosition == current.length()) {
+      current = null;
+    }
+    return n;
+  }
+
+  @Override
+  public synchronized int available() {
+    return current == null ? 0 : current.length() - currentPosition;
+  }
+
+  /**
+   * Discards the data left. The stream is resumed, so the rest of it is dropped as it comes.
+   */
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    chunks.clear();
+    queuedBytes = 0;
+    current = null;
+    resumeIfDrained();
+    notifyAll();
+  }
+
+  private void resumeIfDrained() {
+    if (paused && !limitExceeded && queuedBytes <= window / 2) {
+      paused = false;
+      context.runOnContext(v -> stream.resume());
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package xyz.docbleach.http_server;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Starts the web server, with one {@link Main} verticle per core so HTTP parsing and routing are
+ * spread over several event loops. The instances share the listening port.
+ *
+ * <p>A native transport (epoll, kqueue) is used when its Netty library is on the classpath: the
+ * port is then opened with SO_REUSEPORT by each instance. The number of instances may be set using
+ * the {@code DOCBLEACH_INSTANCES} environment variable.
+ */
+public class ServerLauncher {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ServerLauncher.class);
+
+  private ServerLauncher() {
+    throw new IllegalAccessError("Utility class");
+  }
+
+  public static void main(String[] args) {
+    int instances = Math.max(1,
+        Environment.getInt("DOCBLEACH_INSTANCES", Runtime.getRuntime().availableProcessors()));
+    VertxOptions options =
+        new VertxOptions()
+            .setPreferNativeTransport(true)
+            // Each instance gets its own event loop
+            .setEventLoopPoolSize(Math.max(VertxOptions.DEFAULT_EVENT_LOOP_POOL_SIZE, instances));
+
+    Vertx vertx = Vertx.vertx(options);
+    LOGGER.info("Native transport enabled: {}", vertx.isNativeTransportEnabled());
+
+    vertx.deployVerticle(
+        Main.class.getName(),
+        new DeploymentOptions().setInstances(instances),
+        res -> {
+          if (res.succeeded()) {
+            LOGGER.info("Started {} server instances", instances);
+            return;
+          }
+          LOGGER.error("Could not start the server", res.cause());
+          vertx.close();
+        });
+  }
+}
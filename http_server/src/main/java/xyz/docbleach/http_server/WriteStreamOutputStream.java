@@ -0,0 +1,141 @@
+package xyz.docbleach.http_server;
+
+import io.vertx.core.Context;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.WriteStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Blocking view of a Vert.x {@link WriteStream}, to be written from a worker thread. Bytes are sent
+ * in chunks: the writer waits for each chunk to be accepted by the stream, and for the stream to be
+ * drained when its write queue is full.
+ *
+ * <p>Closing this stream sends the last chunk, but does not end the underlying stream.
+ */
+class WriteStreamOutputStream extends OutputStream {
+
+  private final Context context;
+  private final WriteStream<Buffer> stream;
+  private final byte[] buffer;
+  private int count = 0;
+  private volatile boolean started = false;
+  private volatile IOException failure;
+  private volatile CompletableFuture<Void> pending;
+
+  /**
+   * @param context the context the stream belongs to
+   * @param stream the stream to write to
+   * @param chunkSize the size of the chunks sent to the stream
+   */
+  WriteStreamOutputStream(Context context, WriteStream<Buffer> stream, int chunkSize) {
+    this.context = context;
+    this.stream = stream;
+    this.buffer = new byte[chunkSize];
+
+    stream.exceptionHandler(this::abort);
+  }
+
+  /**
+   * @return true if some bytes were given to the stream, which can not be taken back
+   */
+  boolean hasStarted() {
+    return started;
+  }
+
+  /**
+   * Fails the pending and future writes.
+   *
+   * @param cause the reason why the stream can not be written anymore
+   */
+  void abort(Throwable cause) {
+    failure = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    CompletableFuture<Void> accepted = pending;
+    if (accepted != null) {
+      accepted.completeExceptionally(failure);
+    }
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (count == buffer.length) {
+      sendBuffer();
+    }
+    buffer[count++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      if (count == buffer.length) {
+        sendBuffer();
+      }
+      int n = Math.min(len, buffer.length - count);
+      System.arraycopy(b, off, buffer, count, n);
+      count += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    sendBuffer();
+  }
+
+  @Override
+  public void close() throws IOException {
+    sendBuffer();
+  }
+
+  private void sendBuffer() throws IOException {
+    if (failure != null) {
+      throw failure;
+    }
+    if (count == 0) {
+      return;
+    }
+
+    Buffer chunk = Buffer.buffer(count).appendBytes(buffer, 0, count);
+    count = 0;
+    started = true;
+
+    CompletableFuture<Void> accepted = new CompletableFuture<>();
+    pending = accepted;
+    context.runOnContext(
+        v -> {
+          try {
+            stream.write(chunk);
+            if (stream.writeQueueFull()) {
+              stream.drainHandler(__ -> accepted.complete(null));
+            } else {
+              accepted.complete(null);
+            }
+          } catch (RuntimeException e) {
+            accepted.completeExceptionally(e);
+          }
+        });
+
+    // The failure may have been set before the future was published
+    if (failure != null) {
+      accepted.completeExceptionally(failure);
+    }
+
+    try {
+      accepted.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while writing");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } finally {
+      pending = null;
+    }
+  }
+}
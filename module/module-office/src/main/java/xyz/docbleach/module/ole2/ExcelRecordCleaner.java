@@ -1,18 +1,30 @@
 package xyz.docbleach.module.ole2;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 import org.apache.poi.hssf.model.InternalWorkbook;
 import org.apache.poi.hssf.record.Record;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.poifs.filesystem.DirectoryEntry;
+import org.apache.poi.poifs.filesystem.DocumentEntry;
+import org.apache.poi.poifs.filesystem.DocumentInputStream;
 import org.apache.poi.poifs.filesystem.POIFSFileSystem;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.util.LittleEndian;
+import org.apache.poi.util.LittleEndianOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import xyz.docbleach.api.util.StageBuffer;
 
+/**
+ * Removes the ObProj record from the Workbook stream of an Excel 97 file. The BIFF8 records are
+ * filtered as they are read, without building the workbook's object model: removing a record moves
+ * the following ones, so the stream positions stored in BoundSheet, Index and ExtSST records are
+ * updated.
+ */
 public class ExcelRecordCleaner {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(ExcelRecordCleaner.class);
@@ -22,34 +34,170 @@ public class ExcelRecordCleaner {
    * stream.
    */
   private static final short OB_PROJ_SID = 0xD3;
+  private static final int FILE_PASS_SID = 0x2F;
+  private static final int BOUND_SHEET_SID = 0x85;
+  private static final int INDEX_SID = 0x20B;
+  private static final int EXT_SST_SID = 0xFF;
+  private static final int RECORD_HEADER_SIZE = 4;
+  private static final int MAX_RECORD_SIZE = 0xFFFF;
 
   protected static void cleanupAndSaveExcel97(POIFSFileSystem fs, OutputStream outputStream)
       throws IOException {
-    Workbook wb = WorkbookFactory.create(fs);
-
-    if (wb instanceof HSSFWorkbook) {
-      HSSFWorkbook hwb = (HSSFWorkbook) wb;
-      InternalWorkbook internal = hwb.getInternalWorkbook();
-      if (internal != null) {
-        LOGGER.trace("# of Records: {}", internal.getNumRecords());
-        removeObProjRecord(internal.getRecords());
-        LOGGER.trace("# of Records: {}", internal.getNumRecords());
+    DirectoryEntry root = fs.getRoot();
+    for (String name : InternalWorkbook.WORKBOOK_DIR_ENTRY_NAMES) {
+      if (root.hasEntry(name) && root.getEntry(name) instanceof DocumentEntry) {
+        removeObProjRecords(root, (DocumentEntry) root.getEntry(name));
+        break;
       }
     }
 
-    wb.write(outputStream);
+    fs.writeFilesystem(outputStream);
+  }
+
+  /**
+   * Rewrites the workbook stream without its ObProj records, if it has any.
+   */
+  private static void removeObProjRecords(DirectoryEntry root, DocumentEntry workbook)
+      throws IOException {
+    NavigableMap<Long, Long> removed = findObProjRecords(workbook);
+    if (removed.isEmpty()) {
+      return;
+    }
+
+    StageBuffer filtered = new StageBuffer();
+    try {
+      filterRecords(workbook, removed, filtered);
+      String name = workbook.getName();
+      workbook.delete();
+      try (InputStream is = filtered.getInputStream()) {
+        root.createDocument(name, is);
+      }
+    } finally {
+      filtered.release();
+    }
+  }
+
+  /**
+   * Reads the record headers only.
+   *
+   * @return the end position of each ObProj record, mapped to the number of bytes removed up to
+   * this position
+   */
+  private static NavigableMap<Long, Long> findObProjRecords(DocumentEntry workbook)
+      throws IOException {
+    TreeMap<Long, Long> removed = new TreeMap<>();
+    boolean encrypted = false;
+    long size = workbook.getSize();
+    long position = 0;
+    long removedBytes = 0;
+
+    try (DocumentInputStream is = new DocumentInputStream(workbook)) {
+      while (position + RECORD_HEADER_SIZE <= size) {
+        int sid = is.readUShort();
+        int length = is.readUShort();
+        if (is.skip(length) < length) {
+          throw new IOException("Truncated record in the workbook stream");
+        }
+
+        long end = position + RECORD_HEADER_SIZE + length;
+        if (sid == FILE_PASS_SID) {
+          encrypted = true;
+        } else if (sid == OB_PROJ_SID) {
+          LOGGER.debug("Found ObProj record at position {}", position);
+          removedBytes += end - position;
+          removed.put(end, removedBytes);
+        }
+        position = end;
+      }
+    }
+
+    if (encrypted && !removed.isEmpty()) {
+      // The content of encrypted records depends on their position in the stream
+      throw new IOException("Could not remove the ObProj record of an encrypted workbook");
+    }
+    return removed;
+  }
+
+  private static void filterRecords(DocumentEntry workbook, NavigableMap<Long, Long> removed,
+      OutputStream os) throws IOException {
+    long size = workbook.getSize();
+    long position = 0;
+    byte[] data = new byte[MAX_RECORD_SIZE];
+    LittleEndianOutputStream out = new LittleEndianOutputStream(os);
+
+    try (DocumentInputStream is = new DocumentInputStream(workbook)) {
+      while (position + RECORD_HEADER_SIZE <= size) {
+        int sid = is.readUShort();
+        int length = is.readUShort();
+        is.readFully(data, 0, length);
+        position += RECORD_HEADER_SIZE + length;
+
+        if (sid == OB_PROJ_SID) {
+          LOGGER.debug("Removed ObProj record");
+          continue;
+        }
+        updatePositions(sid, data, length, removed);
+        out.writeShort(sid);
+        out.writeShort(length);
+        out.write(data, 0, length);
+      }
+
+      // Padding, shorter than a record header
+      int read;
+      while ((read = is.read(data)) != -1) {
+        out.write(data, 0, read);
+      }
+    }
+    out.flush();
+  }
+
+  /**
+   * Moves the stream positions stored in a record, according to the bytes removed before them.
+   */
+  private static void updatePositions(int sid, byte[] data, int length,
+      NavigableMap<Long, Long> removed) {
+    switch (sid) {
+      case BOUND_SHEET_SID:
+        // lbPlyPos: position of the sheet's BOF record
+        updatePosition(data, 0, length, removed);
+        break;
+      case INDEX_SID:
+        // ibXF, then the positions of the DBCell records
+        for (int offset = 12; offset + 4 <= length; offset += 4) {
+          updatePosition(data, offset, length, removed);
+        }
+        break;
+      case EXT_SST_SID:
+        // dsst, then an ib position in each ISSTInf structure
+        for (int offset = 2; offset + 8 <= length; offset += 8) {
+          updatePosition(data, offset, length, removed);
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  private static void updatePosition(byte[] data, int offset, int length,
+      NavigableMap<Long, Long> removed) {
+    if (offset + 4 > length) {
+      return;
+    }
+    long position = LittleEndian.getUInt(data, offset);
+    Map.Entry<Long, Long> before = removed.floorEntry(position);
+    if (before != null) {
+      LittleEndian.putUInt(data, offset, position - before.getValue());
+    }
   }
 
   protected static void removeObProjRecord(Collection<Record> records) {
-    new HashSet<>(records)
-        .forEach(
-            record -> {
-              if (!isObProj(record)) {
-                return;
-              }
-              records.remove(record);
-              LOGGER.debug("Found and removed ObProj record: {}", record);
-            });
+    records.removeIf(record -> {
+      if (!isObProj(record)) {
+        return false;
+      }
+      LOGGER.debug("Found and removed ObProj record: {}", record);
+      return true;
+    });
   }
 
   protected static boolean isObProj(Record record) {
@@ -1,23 +1,27 @@
 package xyz.docbleach.module.ole2;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.function.Predicate;
 import org.apache.poi.hpsf.ClassID;
 import org.apache.poi.poifs.filesystem.DirectoryEntry;
 import org.apache.poi.poifs.filesystem.DocumentEntry;
 import org.apache.poi.poifs.filesystem.DocumentInputStream;
 import org.apache.poi.poifs.filesystem.Entry;
-import org.apache.poi.poifs.filesystem.FileMagic;
 import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.poifs.filesystem.POIFSWriterEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import xyz.docbleach.api.BleachSession;
 import xyz.docbleach.api.bleach.Bleach;
 import xyz.docbleach.api.exception.BleachException;
+import xyz.docbleach.api.util.FileBackedInputStream;
+import xyz.docbleach.api.util.StageBuffer;
+import xyz.docbleach.api.util.StreamUtils;
 
 /**
  * Sanitizes an OLE2 file (.doc, .xls, .ppt) by copying its elements into a new OLE2 container.
@@ -28,15 +32,18 @@ import xyz.docbleach.api.exception.BleachException;
 public class OLE2Bleach implements Bleach {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(OLE2Bleach.class);
+  private static final byte[] OLE2_MAGIC =
+      new byte[]{(byte) 0xD0, (byte) 0xCF, 0x11, (byte) 0xE0, (byte) 0xA1, (byte) 0xB1, 0x1A,
+          (byte) 0xE1};
 
   @Override
   public boolean handlesMagic(InputStream stream) {
-    try {
-      return stream.available() > 4 && FileMagic.valueOf(stream) == FileMagic.OLE2;
-    } catch (Exception e) {
-      LOGGER.warn("An exception occured", e);
-      return false;
-    }
+    return StreamUtils.hasHeader(stream, OLE2_MAGIC);
+  }
+
+  @Override
+  public byte[][] getMagicSignatures() {
+    return new byte[][]{OLE2_MAGIC};
   }
 
   @Override
@@ -47,7 +54,8 @@ public class OLE2Bleach implements Bleach {
   @Override
   public void sanitize(InputStream inputStream, OutputStream outputStream, BleachSession session)
       throws BleachException {
-    try (POIFSFileSystem fsIn = new POIFSFileSystem(inputStream);
+    StageBuffer spill = new StageBuffer();
+    try (POIFSFileSystem fsIn = openFileSystem(inputStream, spill);
         POIFSFileSystem fs = new POIFSFileSystem()) {
       // @TODO: Filter based on Storage Class ID - see issue #23
       sanitize(session, fsIn, fs);
@@ -59,7 +67,35 @@ public class OLE2Bleach implements Bleach {
       }
     } catch (IOException | IndexOutOfBoundsException e) {
       throw new BleachException(e);
+    } finally {
+      spill.release();
+    }
+  }
+
+  /**
+   * Files are opened in place and read only: sectors are read when needed, instead of loading the
+   * whole container in memory. Other streams are copied to the spill buffer first, so large ones
+   * end up in a temporary file opened the same way.
+   *
+   * @param spill holds the container if the stream is not file-backed, released by the caller
+   */
+  private static POIFSFileSystem openFileSystem(InputStream inputStream, StageBuffer spill)
+      throws IOException {
+    File file = FileBackedInputStream.getUntouchedFile(inputStream);
+    if (file != null) {
+      return new POIFSFileSystem(file, true);
+    }
+    if (StreamUtils.unwrap(inputStream) instanceof ByteArrayInputStream) {
+      // Already in memory
+      return new POIFSFileSystem(inputStream);
+    }
+
+    StreamUtils.copy(inputStream, spill);
+    spill.close();
+    if (spill.isSpilled()) {
+      return new POIFSFileSystem(spill.getFile(), true);
     }
+    return new POIFSFileSystem(spill.getInputStream());
   }
 
   protected void sanitize(BleachSession session, POIFSFileSystem fsIn, POIFSFileSystem fs) {
@@ -102,31 +138,68 @@ public class OLE2Bleach implements Bleach {
     LOGGER.trace("copyNodesRecursively: {}, parent: {}", entry.getName(), entry.getParent());
     try {
       if (!entry.isDirectoryEntry()) {
-        DocumentEntry dentry = (DocumentEntry) entry;
-        DocumentInputStream dstream = new DocumentInputStream(dentry);
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        copyDocument(session, (DocumentEntry) entry, target);
+        return;
+      }
+
+      DirectoryEntry dirEntry = (DirectoryEntry) entry;
+      DirectoryEntry newTarget = target.createDirectory(entry.getName());
+      newTarget.setStorageClsid(dirEntry.getStorageClsid());
+
+      sanitize(session, dirEntry, newTarget);
+    } catch (IOException | UncheckedIOException e) {
+      LOGGER.error("An error occured while trying to recursively copy nodes", e);
+    }
+  }
+
+  /**
+   * Only streams holding a file known by the bleach (embedded documents...) are sanitized. The
+   * others are copied as they are, straight from the original container to the new one.
+   */
+  private void copyDocument(BleachSession session, DocumentEntry entry, DirectoryEntry target)
+      throws IOException {
+    try (DocumentInputStream dstream = new DocumentInputStream(entry)) {
+      if (!session.getBleach().handlesMagic(dstream)) {
+        target.createDocument(entry.getName(), entry.getSize(),
+            event -> write(event, os -> StreamUtils.copy(dstream, os)));
+        return;
+      }
 
+      StageBuffer sanitized = new StageBuffer();
+      try {
         try {
-          session.sanitize(dstream, os);
+          session.sanitize(dstream, sanitized);
         } catch (BleachException e) {
           LOGGER.error("An error occured", e);
           return;
         }
 
-        ByteArrayInputStream bais = new ByteArrayInputStream(os.toByteArray());
-
-        target.createDocument(dentry.getName(), bais);
-        dstream.close();
-        return;
+        if (sanitized.size() > Integer.MAX_VALUE) {
+          throw new IOException("Sanitized stream is too large: " + sanitized.size());
+        }
+        target.createDocument(entry.getName(), (int) sanitized.size(),
+            event -> write(event, sanitized::writeTo));
+      } finally {
+        sanitized.release();
       }
+    }
+  }
 
-      DirectoryEntry dirEntry = (DirectoryEntry) entry;
-      DirectoryEntry newTarget = target.createDirectory(entry.getName());
-      newTarget.setStorageClsid(dirEntry.getStorageClsid());
-
-      sanitize(session, dirEntry, newTarget);
+  /**
+   * Fills a new stream of the container, as it is created.
+   */
+  private static void write(POIFSWriterEvent event, StreamWriter writer) {
+    try {
+      writer.writeTo(event.getStream());
     } catch (IOException e) {
-      LOGGER.error("An error occured while trying to recursively copy nodes", e);
+      // The listener may not throw checked exceptions
+      throw new UncheckedIOException(e);
     }
   }
+
+  @FunctionalInterface
+  private interface StreamWriter {
+
+    void writeTo(OutputStream os) throws IOException;
+  }
 }
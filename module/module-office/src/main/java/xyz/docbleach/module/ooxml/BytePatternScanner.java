@@ -0,0 +1,119 @@
+package xyz.docbleach.module.ooxml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Looks for several ASCII patterns at once in a stream, without decoding it. This is an
+ * Aho-Corasick automaton, compiled to a transition table: each byte costs one array lookup, no
+ * matter how many patterns there are.
+ */
+class BytePatternScanner {
+
+  private static final int BUFFER_SIZE = 8 * 1024;
+  private static final int ALPHABET = 256;
+
+  /**
+   * Next state, indexed by state * 256 + byte
+   */
+  private final int[] transitions;
+  /**
+   * True if a pattern ends in this state
+   */
+  private final boolean[] matches;
+
+  /**
+   * @param patterns the patterns to look for, in ASCII
+   */
+  BytePatternScanner(String... patterns) {
+    // Build the trie
+    List<int[]> trie = new ArrayList<>();
+    List<Boolean> terminal = new ArrayList<>();
+    trie.add(newState());
+    terminal.add(false);
+
+    for (String pattern : patterns) {
+      int state = 0;
+      for (byte b : pattern.getBytes(StandardCharsets.US_ASCII)) {
+        int index = b & 0xFF;
+        if (trie.get(state)[index] == -1) {
+          trie.get(state)[index] = trie.size();
+          trie.add(newState());
+          terminal.add(false);
+        }
+        state = trie.get(state)[index];
+      }
+      terminal.set(state, true);
+    }
+
+    int states = trie.size();
+    transitions = new int[states * ALPHABET];
+    matches = new boolean[states];
+    int[] failure = new int[states];
+
+    // Breadth-first, so the failure state of a node is always computed before the node itself
+    Queue<Integer> queue = new ArrayDeque<>();
+    for (int b = 0; b < ALPHABET; b++) {
+      int next = trie.get(0)[b];
+      if (next == -1) {
+        transitions[b] = 0;
+      } else {
+        transitions[b] = next;
+        failure[next] = 0;
+        queue.add(next);
+      }
+    }
+    matches[0] = terminal.get(0);
+
+    while (!queue.isEmpty()) {
+      int state = queue.remove();
+      matches[state] = terminal.get(state) || matches[failure[state]];
+
+      for (int b = 0; b < ALPHABET; b++) {
+        int next = trie.get(state)[b];
+        if (next == -1) {
+          transitions[state * ALPHABET + b] = transitions[failure[state] * ALPHABET + b];
+        } else {
+          transitions[state * ALPHABET + b] = next;
+          failure[next] = transitions[failure[state] * ALPHABET + b];
+          queue.add(next);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the stream until one of the patterns is found.
+   *
+   * @param stream the stream to look into, read until a pattern is found or until its end
+   * @return true if at least one pattern has been found
+   * @throws IOException if the stream could not be read
+   */
+  boolean find(InputStream stream) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int state = 0;
+    int len;
+
+    while ((len = stream.read(buffer)) != -1) {
+      for (int i = 0; i < len; i++) {
+        state = transitions[state * ALPHABET + (buffer[i] & 0xFF)];
+        if (matches[state]) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static int[] newState() {
+    int[] state = new int[ALPHABET];
+    Arrays.fill(state, -1);
+    return state;
+  }
+}
@@ -2,6 +2,7 @@ package xyz.docbleach.module.ooxml;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -10,7 +11,9 @@ import java.util.Iterator;
 import java.util.Map;
 import org.apache.poi.UnsupportedFileFormatException;
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.InvalidOperationException;
 import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
 import org.apache.poi.openxml4j.opc.PackagePart;
 import org.apache.poi.openxml4j.opc.PackagePartName;
 import org.apache.poi.openxml4j.opc.PackageRelationship;
@@ -18,7 +21,6 @@ import org.apache.poi.openxml4j.opc.PackagingURIHelper;
 import org.apache.poi.openxml4j.opc.RelationshipSource;
 import org.apache.poi.openxml4j.opc.TargetMode;
 import org.apache.poi.openxml4j.opc.internal.ContentType;
-import org.apache.poi.poifs.filesystem.FileMagic;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import xyz.docbleach.api.BleachSession;
@@ -28,6 +30,8 @@ import xyz.docbleach.api.threat.Threat;
 import xyz.docbleach.api.threat.ThreatAction;
 import xyz.docbleach.api.threat.ThreatSeverity;
 import xyz.docbleach.api.threat.ThreatType;
+import xyz.docbleach.api.util.FileBackedInputStream;
+import xyz.docbleach.api.util.StageBuffer;
 import xyz.docbleach.api.util.StreamUtils;
 
 /**
@@ -44,6 +48,11 @@ public class OOXMLBleach implements Bleach {
   private static final String EXTERNAL_RELATION_FORMAT =
       "Found an external relationship from '{}' to '{}' (type '{}')";
   private static final String OOXWORD_SCHEME = "ooxWord";
+  /**
+   * First entry of the packages written by Office and POI. Other zip archives are left to the zip
+   * bleach
+   */
+  private static final String CONTENT_TYPES = "[Content_Types].xml";
 
   private static final String DUMMY_FILE_PART_NAME = "/bleach/bleach";
   private static final String DUMMY_FILE_CONTENT = "BLEACHED";
@@ -128,12 +137,7 @@ public class OOXMLBleach implements Bleach {
 
   @Override
   public boolean handlesMagic(InputStream stream) {
-    try {
-      return stream.available() > 4 && FileMagic.valueOf(stream) == FileMagic.OOXML;
-    } catch (Exception e) {
-      LOGGER.warn("An exception occured", e);
-      return false;
-    }
+    return StreamUtils.hasFirstZipEntry(stream, CONTENT_TYPES);
   }
 
   @Override
@@ -144,50 +148,76 @@ public class OOXMLBleach implements Bleach {
   @Override
   public void sanitize(InputStream inputStream, OutputStream outputStream, BleachSession session)
       throws BleachException {
+    // POI opens files using random access. Files and in-memory streams are used as is, anything
+    // else is buffered (and spilled to disk if large).
+    File file = FileBackedInputStream.getUntouchedFile(inputStream);
+    StageBuffer buffer = null;
+    InputStream is = inputStream;
+
     try {
-      inputStream = prepareInputStream(inputStream);
+      if (file == null && !(StreamUtils.unwrap(inputStream) instanceof ByteArrayInputStream)) {
+        buffer = new StageBuffer();
+        StreamUtils.copy(inputStream, buffer);
+        file = buffer.getFile();
+        is = buffer.getInputStream();
+      }
+
+      sanitize(file, is, outputStream, session);
     } catch (IOException e) {
-      LOGGER.error("Error in OOXMLBleach", e);
+      throw new BleachException(e);
+    } finally {
+      if (buffer != null) {
+        buffer.release();
+      }
+    }
+  }
+
+  /**
+   * Opens the package from the file when there is one, so POI reads it using random access instead
+   * of copying it in memory.
+   *
+   * @param file the file holding the document, or null to use the stream
+   * @param is the document
+   */
+  private void sanitize(File file, InputStream is, OutputStream outputStream,
+      BleachSession session) throws IOException, BleachException {
+    LOGGER.trace("Opening the package from {}", file == null ? "memory" : file);
+    OPCPackage pkg;
+    try {
+      pkg = file == null ? OPCPackage.open(is) : OPCPackage.open(file, PackageAccess.READ_WRITE);
+    } catch (InvalidFormatException | UnsupportedFileFormatException
+        | InvalidOperationException e) {
+      removeUnsupportedFile(e, session);
       return;
     }
 
-    try (OPCPackage pkg = OPCPackage.open(inputStream)) {
+    try {
       sanitize(pkg, session);
 
       pkg.save(outputStream);
-
-      // Prevent from writing the InputStream, even if this sounds absurd.
+    } catch (InvalidFormatException e) {
+      removeUnsupportedFile(e, session);
+    } finally {
+      // Never closed: it would write the package back to the file it was opened from
       pkg.revert();
-    } catch (InvalidFormatException | UnsupportedFileFormatException e) {
-      // We can't canitize this file, so we ignore it
-      LOGGER.debug("Invalid format", e);
-      try {
-        inputStream.reset();
-        StreamUtils.copy(inputStream, outputStream);
-      } catch (IOException e2) {
-        LOGGER.error("Error in OOXMLBleach", e2);
-      }
-    } catch (IOException e) {
-      throw new BleachException(e);
     }
   }
 
-  private InputStream prepareInputStream(InputStream inputStream) throws IOException {
-    // Once opened, the stream can't be recovered. We need to create a "backup" of it, just in case
-    // the file is a
-    // normal Zip archive and not an OOXML document.
-    if (!(inputStream instanceof ByteArrayInputStream)) {
-      InputStream oldInputStream = inputStream;
-      ByteArrayOutputStream bucket = new ByteArrayOutputStream();
-      StreamUtils.copy(oldInputStream, bucket);
-      oldInputStream.close();
-
-      inputStream = new ByteArrayInputStream(bucket.toByteArray());
-    }
-
-    inputStream.mark(inputStream.available() + 1);
+  /**
+   * A file looking like a package that POI can not open is not handled by any other bleach: it is
+   * removed, like any file of an unknown type.
+   */
+  private void removeUnsupportedFile(Exception e, BleachSession session) {
+    LOGGER.debug("Invalid format", e);
+    Threat threat = Threat.builder()
+        .type(ThreatType.UNRECOGNIZED_CONTENT)
+        .severity(ThreatSeverity.MEDIUM)
+        .action(ThreatAction.REMOVE)
+        .location("Package")
+        .details("Invalid Office Open XML package")
+        .build();
 
-    return inputStream;
+    session.recordThreat(threat);
   }
 
   public void sanitize(OPCPackage pkg, BleachSession session)
@@ -1,11 +1,18 @@
 package xyz.docbleach.module.ooxml;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 import org.apache.poi.openxml4j.opc.PackagePart;
 import org.apache.poi.openxml4j.opc.ZipPackagePart;
 import org.slf4j.Logger;
@@ -17,35 +24,35 @@ import xyz.docbleach.api.threat.ThreatSeverity;
 import xyz.docbleach.api.threat.ThreatType;
 
 /**
- * Helper dedicated to alter XML tags.
+ * Helper dedicated to alter XML tags. Parts are streamed using StAX, so the size of a part does
+ * not matter: only the part's current element is held in memory.
  */
 public class OOXMLTagHelper {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(OOXMLTagHelper.class);
 
   private static final String XML_EXTENSION = "xml";
-  private static final String XML_COMMENT_BLEACHED = "<!-- bleached -->";
+  private static final String XML_COMMENT_BLEACHED = " bleached ";
   private static final String TAG_EXTERNAL_DATA = "externalData";
 
-  /**
-   * The regexp try to catch the whole tag, including namespace and attributes
-   */
-  private static final String REGEXP_EXTERNAL_DATA = "<.." + TAG_EXTERNAL_DATA + ".*?/>";
-
   /**
    * bleach DDE in external link and document
    */
   private static final String DDEAUTO = "DDEAUTO";
 
   private static final String ATTRIBUTE_DDESERVICE_DATA = "ddeService";
-  private static final String REGEXP_DDESERVICE_DATA = ATTRIBUTE_DDESERVICE_DATA + "=\".*?\"";
-
   private static final String ATTRIBUTE_DDETOPIC_DATA = "ddeTopic";
-  private static final String REGEXP_DDETOPIC_DATA = ATTRIBUTE_DDETOPIC_DATA + "=\".*?\"";
 
   private static final String DDE_DATA_BLEACHED1 = "cmd";
   private static final String DDE_DATA_BLEACHED2 = "exit";
 
+  private static final BytePatternScanner PRE_SCANNER = new BytePatternScanner(
+      TAG_EXTERNAL_DATA, DDEAUTO, ATTRIBUTE_DDESERVICE_DATA, ATTRIBUTE_DDETOPIC_DATA, "&#");
+
+  private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+  private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+  private static final String UTF_8 = StandardCharsets.UTF_8.name();
+
   private OOXMLTagHelper() {
   }
 
@@ -66,84 +73,322 @@ public class OOXMLTagHelper {
       return;
     }
 
-    String content = readPartContent(part);
-    // An error occured
-    if (content == null) {
+    Findings findings;
+    try {
+      // Most parts are clean: they are not parsed if the raw bytes cannot hold a threat
+      if (!mayContainThreats(part)) {
+        return;
+      }
+      try (InputStream is = part.getInputStream()) {
+        findings = scan(is);
+      }
+    } catch (IOException | XMLStreamException ex) {
+      LOGGER.error(
+          "Error while bleaching {}. The file may be corrupted :/",
+          part.getPartName().getName(),
+          ex);
       return;
     }
 
-    boolean external = content.indexOf(TAG_EXTERNAL_DATA) != -1;
-    boolean ddeauto =
-        content.indexOf(DDEAUTO) != -1 || content.indexOf(ATTRIBUTE_DDESERVICE_DATA) != -1;
-
     // The evil tag has not been found, return
-    if (!external && !ddeauto) {
+    if (!findings.externalData && !findings.dde) {
       return;
     }
 
-    LOGGER.debug((external ? "externalData tag" : "DDE ") + " has been spotted {}", part);
-
-    // Replace the tag by a comment
-    content = content.replaceAll(REGEXP_EXTERNAL_DATA, XML_COMMENT_BLEACHED);
+    LOGGER.debug((findings.externalData ? "externalData tag" : "DDE ") + " has been spotted {}",
+        part);
 
-    // Replace DDEAUTO with nothing, DDE will not trigger
-    content = content.replaceAll(DDEAUTO, "");
-
-    // Replace ddeService & ddeTopic with cmd.exe exit
-    content =
-        content.replaceAll(
-            REGEXP_DDESERVICE_DATA, ATTRIBUTE_DDESERVICE_DATA + "=\"" + DDE_DATA_BLEACHED1 + "\"");
-    content =
-        content.replaceAll(
-            REGEXP_DDETOPIC_DATA, ATTRIBUTE_DDETOPIC_DATA + "=\"" + DDE_DATA_BLEACHED2 + "\"");
-
-    // Write the result
-    try (OutputStream os = part.getOutputStream()) {
-      os.write(content.getBytes());
-      os.close();
-    } catch (IOException ex) {
+    // Opening the output stream replaces the zip part with a new one, the original content is
+    // still readable.
+    try (InputStream is = part.getInputStream(); OutputStream os = part.getOutputStream()) {
+      rewrite(is, os);
+    } catch (IOException | XMLStreamException ex) {
       LOGGER.error("Error while writing the part content. The file may be corrupted.", ex);
       return;
     }
 
     session.recordThreat(Threat.builder()
-        .type(external ? ThreatType.EXTERNAL_CONTENT : ThreatType.ACTIVE_CONTENT)
+        .type(findings.externalData ? ThreatType.EXTERNAL_CONTENT : ThreatType.ACTIVE_CONTENT)
         .severity(ThreatSeverity.HIGH)
         .action(ThreatAction.REMOVE)
         .location(part.getPartName().getName())
         .details(
             "Removed tag \" "
-                + (external ? "externalData" : "DDEAUTO")
+                + (findings.externalData ? "externalData" : "DDEAUTO")
                 + "\" from the document.")
         .build());
   }
 
   /**
-   * Read the part content.
+   * Looks for the names we bleach in the raw bytes of the part. Character references may hide
+   * them, so they send the part to the parser too.
    *
-   * @param part The {@link org.apache.poi.openxml4j.opc.PackagePart PackagePart} the content must
-   * be read from
-   * @return A string containing the content of the part.
+   * @return false if the part can be skipped
    */
-  private static String readPartContent(PackagePart part) {
-    try (InputStream is = part.getInputStream()) {
-      // Read the file content first
-      BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
-
-      StringBuilder buf = new StringBuilder();
-      String line = reader.readLine();
-      while (line != null) {
-        buf.append(line);
-        line = reader.readLine();
+  private static boolean mayContainThreats(PackagePart part) throws IOException {
+    try (PushbackInputStream is = new PushbackInputStream(part.getInputStream(), 2)) {
+      byte[] header = new byte[2];
+      int read = is.read(header);
+      if (read == 2 && !isAsciiCompatible(header)) {
+        // UTF-16, the patterns are encoded differently
+        return true;
+      }
+      if (read > 0) {
+        is.unread(header, 0, read);
       }
+      return PRE_SCANNER.find(is);
+    }
+  }
 
-      return buf.toString();
-    } catch (IOException ex) {
-      LOGGER.error(
-          "Error while bleaching {}. The file may be corrupted :/",
-          part.getPartName().getName(),
-          ex);
-      return null;
+  private static boolean isAsciiCompatible(byte[] header) {
+    // Byte order marks, or "<" encoded as UTF-16
+    boolean utf16 = (header[0] == (byte) 0xFE && header[1] == (byte) 0xFF)
+        || (header[0] == (byte) 0xFF && header[1] == (byte) 0xFE)
+        || (header[0] == 0 && header[1] == '<')
+        || (header[0] == '<' && header[1] == 0);
+    return !utf16;
+  }
+
+  /**
+   * Looks for the elements and attributes to bleach, without writing anything.
+   */
+  private static Findings scan(InputStream is) throws XMLStreamException {
+    Findings findings = new Findings();
+    XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(is);
+
+    try {
+      while (reader.hasNext()) {
+        switch (reader.next()) {
+          case XMLStreamConstants.START_ELEMENT:
+            if (TAG_EXTERNAL_DATA.equals(reader.getLocalName())) {
+              findings.externalData = true;
+            }
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+              findings.dde |= isDDEAttribute(reader.getAttributeLocalName(i))
+                  || reader.getAttributeValue(i).contains(DDEAUTO);
+            }
+            break;
+          case XMLStreamConstants.CHARACTERS:
+          case XMLStreamConstants.CDATA:
+            findings.dde |= reader.getText().contains(DDEAUTO);
+            break;
+          default:
+            break;
+        }
+
+        if (findings.externalData && findings.dde) {
+          break;
+        }
+      }
+    } finally {
+      reader.close();
+    }
+
+    return findings;
+  }
+
+  /**
+   * Copies the part, removing the externalData elements and neutralizing DDE.
+   */
+  private static void rewrite(InputStream is, OutputStream os)
+      throws IOException, XMLStreamException {
+    XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(is);
+    try {
+      writeDeclaration(reader, os);
+
+      XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(os, UTF_8);
+      try {
+        copy(reader, writer);
+        writer.flush();
+      } finally {
+        writer.close();
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * The StAX writer does not handle the standalone pseudo-attribute, the declaration is written by
+   * hand.
+   */
+  private static void writeDeclaration(XMLStreamReader reader, OutputStream os)
+      throws IOException {
+    StringBuilder declaration = new StringBuilder("<?xml version=\"")
+        .append(reader.getVersion() == null ? "1.0" : reader.getVersion())
+        .append("\" encoding=\"").append(UTF_8).append('"');
+    if (reader.standaloneSet()) {
+      declaration.append(" standalone=\"").append(reader.isStandalone() ? "yes" : "no")
+          .append('"');
+    }
+    declaration.append("?>\r\n");
+    os.write(declaration.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void copy(XMLStreamReader reader, XMLStreamWriter writer)
+      throws XMLStreamException {
+    Element element = new Element();
+    int event = 0;
+    // True if the event was read ahead, after a start element
+    boolean pending = false;
+
+    while (pending || reader.hasNext()) {
+      if (!pending) {
+        event = reader.next();
+      }
+      pending = false;
+
+      switch (event) {
+        case XMLStreamConstants.START_ELEMENT:
+          if (TAG_EXTERNAL_DATA.equals(reader.getLocalName())) {
+            // Replace the tag by a comment
+            writer.writeComment(XML_COMMENT_BLEACHED);
+            skipElement(reader);
+            break;
+          }
+
+          element.read(reader);
+          event = reader.next();
+          if (event == XMLStreamConstants.END_ELEMENT) {
+            element.write(writer, true);
+          } else {
+            element.write(writer, false);
+            pending = true;
+          }
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          writer.writeEndElement();
+          break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+        case XMLStreamConstants.SPACE:
+          // Replace DDEAUTO with nothing, DDE will not trigger
+          writer.writeCharacters(reader.getText().replace(DDEAUTO, ""));
+          break;
+        case XMLStreamConstants.COMMENT:
+          writer.writeComment(reader.getText());
+          break;
+        case XMLStreamConstants.PROCESSING_INSTRUCTION:
+          writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+          break;
+        case XMLStreamConstants.ENTITY_REFERENCE:
+          writer.writeEntityRef(reader.getLocalName());
+          break;
+        default:
+          // The declaration is already written, and DTDs are not supported
+          break;
+      }
+    }
+  }
+
+  private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+  }
+
+  /**
+   * Replaces ddeService & ddeTopic with cmd.exe exit, and DDEAUTO with nothing.
+   */
+  private static String sanitizeAttribute(String name, String value) {
+    if (ATTRIBUTE_DDESERVICE_DATA.equals(name)) {
+      return DDE_DATA_BLEACHED1;
+    }
+    if (ATTRIBUTE_DDETOPIC_DATA.equals(name)) {
+      return DDE_DATA_BLEACHED2;
+    }
+    return value.replace(DDEAUTO, "");
+  }
+
+  private static boolean isDDEAttribute(String name) {
+    return ATTRIBUTE_DDESERVICE_DATA.equals(name) || ATTRIBUTE_DDETOPIC_DATA.equals(name);
+  }
+
+  private static XMLInputFactory createInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    // No DTD nor external entities: XXE
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    // DDEAUTO may otherwise be split between two events
+    factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    return factory;
+  }
+
+  /**
+   * A start element, kept until the next event tells whether it is empty. The instance is reused
+   * for every element of a part.
+   */
+  private static class Element {
+
+    private final List<String> namespaces = new ArrayList<>();
+    private final List<String> attributes = new ArrayList<>();
+    private String prefix;
+    private String namespaceURI;
+    private String localName;
+
+    void read(XMLStreamReader reader) {
+      prefix = reader.getPrefix();
+      namespaceURI = reader.getNamespaceURI();
+      localName = reader.getLocalName();
+
+      namespaces.clear();
+      for (int i = 0; i < reader.getNamespaceCount(); i++) {
+        namespaces.add(reader.getNamespacePrefix(i));
+        namespaces.add(reader.getNamespaceURI(i));
+      }
+
+      attributes.clear();
+      for (int i = 0; i < reader.getAttributeCount(); i++) {
+        String name = reader.getAttributeLocalName(i);
+        attributes.add(reader.getAttributePrefix(i));
+        attributes.add(reader.getAttributeNamespace(i));
+        attributes.add(name);
+        attributes.add(sanitizeAttribute(name, reader.getAttributeValue(i)));
+      }
+    }
+
+    void write(XMLStreamWriter writer, boolean empty) throws XMLStreamException {
+      String elementPrefix = prefix == null ? "" : prefix;
+      String elementNamespace = namespaceURI == null ? "" : namespaceURI;
+      if (empty) {
+        writer.writeEmptyElement(elementPrefix, localName, elementNamespace);
+      } else {
+        writer.writeStartElement(elementPrefix, localName, elementNamespace);
+      }
+
+      for (int i = 0; i < namespaces.size(); i += 2) {
+        String namespacePrefix = namespaces.get(i);
+        if (namespacePrefix == null || namespacePrefix.isEmpty()) {
+          writer.writeDefaultNamespace(namespaces.get(i + 1));
+        } else {
+          writer.writeNamespace(namespacePrefix, namespaces.get(i + 1));
+        }
+      }
+
+      for (int i = 0; i < attributes.size(); i += 4) {
+        String attributePrefix = attributes.get(i);
+        if (attributePrefix == null || attributePrefix.isEmpty()) {
+          writer.writeAttribute(attributes.get(i + 2), attributes.get(i + 3));
+        } else {
+          writer.writeAttribute(attributePrefix, attributes.get(i + 1), attributes.get(i + 2),
+              attributes.get(i + 3));
+        }
+      }
     }
   }
+
+  /**
+   * What was found in a part.
+   */
+  private static class Findings {
+
+    private boolean externalData = false;
+    private boolean dde = false;
+  }
 }
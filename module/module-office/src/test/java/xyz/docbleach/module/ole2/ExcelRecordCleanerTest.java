@@ -1,12 +1,23 @@
 package xyz.docbleach.module.ole2;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
 import java.util.HashSet;
 import org.apache.poi.hssf.record.Record;
 import org.apache.poi.hssf.record.UnknownRecord;
+import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.poifs.filesystem.DocumentEntry;
+import org.apache.poi.poifs.filesystem.DocumentInputStream;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.util.IOUtils;
 import org.junit.jupiter.api.Test;
 
 class ExcelRecordCleanerTest {
@@ -27,4 +38,49 @@ class ExcelRecordCleanerTest {
     assertTrue(records.contains(valid2), "A valid record is not removed");
     assertFalse(records.contains(obProj1), "The ObProj record is removed");
   }
+
+  @Test
+  void cleanupAndSaveExcel97() throws IOException {
+    try (HSSFWorkbook wb = new HSSFWorkbook()) {
+      for (int i = 0; i < 2; i++) {
+        HSSFSheet sheet = wb.createSheet("Sheet" + i);
+        for (int row = 0; row < 100; row++) {
+          sheet.createRow(row).createCell(0).setCellValue("Cell " + i + "-" + row);
+        }
+      }
+      byte[] expected = workbookStream(wb);
+
+      wb.getInternalWorkbook().getWorkbookRecordList()
+          .add(1, new UnknownRecord(0xD3, new byte[]{}));
+      try (POIFSFileSystem fs = toFileSystem(wb)) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ExcelRecordCleaner.cleanupAndSaveExcel97(fs, os);
+
+        // Same records as a workbook without ObProj, sheet and string positions included
+        try (POIFSFileSystem cleaned =
+            new POIFSFileSystem(new ByteArrayInputStream(os.toByteArray()))) {
+          assertArrayEquals(expected, workbookStream(cleaned));
+        }
+      }
+    }
+  }
+
+  private static byte[] workbookStream(HSSFWorkbook wb) throws IOException {
+    try (POIFSFileSystem fs = toFileSystem(wb)) {
+      return workbookStream(fs);
+    }
+  }
+
+  private static POIFSFileSystem toFileSystem(HSSFWorkbook wb) throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    wb.write(os);
+    return new POIFSFileSystem(new ByteArrayInputStream(os.toByteArray()));
+  }
+
+  private static byte[] workbookStream(POIFSFileSystem fs) throws IOException {
+    try (InputStream is = new DocumentInputStream(
+        (DocumentEntry) fs.getRoot().getEntry("Workbook"))) {
+      return IOUtils.toByteArray(is);
+    }
+  }
 }
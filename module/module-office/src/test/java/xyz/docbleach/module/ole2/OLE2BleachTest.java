@@ -1,15 +1,29 @@
 package xyz.docbleach.module.ole2;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.spy;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import org.apache.poi.poifs.filesystem.DirectoryEntry;
+import org.apache.poi.poifs.filesystem.DocumentEntry;
+import org.apache.poi.poifs.filesystem.DocumentInputStream;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.util.IOUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import xyz.docbleach.api.BleachSession;
 import xyz.docbleach.api.BleachTestBase;
+import xyz.docbleach.api.exception.BleachException;
+import xyz.docbleach.api.util.FileBackedInputStream;
 
 class OLE2BleachTest extends BleachTestBase {
 
@@ -31,4 +45,89 @@ class OLE2BleachTest extends BleachTestBase {
     invalidInputStream = new ByteArrayInputStream("Anything".getBytes(charset));
     assertFalse(instance.handlesMagic(invalidInputStream));
   }
+
+  @Test
+  void copiesStreamsAndSanitizesEmbeddedFiles() throws IOException, BleachException {
+    byte[] large = new byte[10_000];
+    for (int i = 0; i < large.length; i++) {
+      large[i] = (byte) i;
+    }
+    byte[] small = "small".getBytes(Charset.defaultCharset());
+
+    byte[] embedded;
+    try (POIFSFileSystem fs = new POIFSFileSystem()) {
+      fs.createDocument(new ByteArrayInputStream(small), "Macros");
+      fs.createDocument(new ByteArrayInputStream(small), "Kept");
+      embedded = toByteArray(fs);
+    }
+
+    byte[] file;
+    try (POIFSFileSystem fs = new POIFSFileSystem()) {
+      fs.createDocument(new ByteArrayInputStream(large), "Large");
+      fs.createDocument(new ByteArrayInputStream(embedded), "Embedded");
+      fs.getRoot().createDirectory("Storage")
+          .createDocument("Small", new ByteArrayInputStream(small));
+      file = toByteArray(fs);
+    }
+
+    BleachSession session = new BleachSession(instance);
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    instance.sanitize(new ByteArrayInputStream(file), os, session);
+    assertEquals(1, session.threatCount());
+
+    try (POIFSFileSystem fs = new POIFSFileSystem(new ByteArrayInputStream(os.toByteArray()))) {
+      assertArrayEquals(large, read(fs.getRoot(), "Large"));
+      DirectoryEntry storage = (DirectoryEntry) fs.getRoot().getEntry("Storage");
+      assertArrayEquals(small, read(storage, "Small"));
+
+      try (POIFSFileSystem nested =
+          new POIFSFileSystem(new ByteArrayInputStream(read(fs.getRoot(), "Embedded")))) {
+        assertFalse(nested.getRoot().hasEntry("Macros"));
+        assertTrue(nested.getRoot().hasEntry("Kept"));
+      }
+    }
+  }
+
+  @Test
+  void readsFilesInPlace() throws IOException, BleachException {
+    byte[] content;
+    try (POIFSFileSystem fs = new POIFSFileSystem()) {
+      fs.createDocument(new ByteArrayInputStream(new byte[10_000]), "Macros");
+      fs.createDocument(new ByteArrayInputStream(new byte[10_000]), "Kept");
+      content = toByteArray(fs);
+    }
+
+    File file = File.createTempFile("docbleach", ".doc");
+    try {
+      Files.write(file.toPath(), content);
+      BleachSession session = new BleachSession(instance);
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      try (InputStream is = new FileBackedInputStream(file)) {
+        instance.sanitize(is, os, session);
+      }
+
+      assertEquals(1, session.threatCount());
+      // The file is opened read only
+      assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+      try (POIFSFileSystem fs = new POIFSFileSystem(new ByteArrayInputStream(os.toByteArray()))) {
+        assertFalse(fs.getRoot().hasEntry("Macros"));
+        assertEquals(10_000, read(fs.getRoot(), "Kept").length);
+      }
+    } finally {
+      Files.delete(file.toPath());
+    }
+  }
+
+  private static byte[] toByteArray(POIFSFileSystem fs) throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    fs.writeFilesystem(os);
+    return os.toByteArray();
+  }
+
+  private static byte[] read(DirectoryEntry directory, String name) throws IOException {
+    try (InputStream is = new DocumentInputStream(
+        (DocumentEntry) directory.getEntry(name))) {
+      return IOUtils.toByteArray(is);
+    }
+  }
 }
@@ -0,0 +1,52 @@
+package xyz.docbleach.module.ooxml;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class BytePatternScannerTest {
+
+  private final BytePatternScanner instance =
+      new BytePatternScanner("externalData", "DDEAUTO", "ddeService", "&#");
+
+  @Test
+  void findsEveryPattern() throws IOException {
+    assertTrue(find("<c:externalData r:id=\"rId1\"/>"));
+    assertTrue(find("<w:instrText>DDEAUTO c:\\\\cmd.exe</w:instrText>"));
+    assertTrue(find("<ddeLink ddeService=\"cmd\"/>"));
+    assertTrue(find("<t>&#68;DEAUTO</t>"));
+  }
+
+  @Test
+  void findsOverlappingPatterns() throws IOException {
+    assertTrue(find("ddeddeService"));
+    assertTrue(find("DDDEAUTO"));
+    assertTrue(find("externalexternalData"));
+  }
+
+  @Test
+  void ignoresCleanContent() throws IOException {
+    assertFalse(find(""));
+    assertFalse(find("<c:external/><ddeLink ddeservice=\"x\"/><t>DDE AUTO &amp; #</t>"));
+  }
+
+  @Test
+  void findsPatternsAcrossBuffers() throws IOException {
+    byte[] content = new byte[20_000];
+    Arrays.fill(content, (byte) 'a');
+    byte[] pattern = "DDEAUTO".getBytes(StandardCharsets.US_ASCII);
+    // Crosses the 8KB boundary
+    System.arraycopy(pattern, 0, content, 8 * 1024 - 3, pattern.length);
+
+    assertTrue(instance.find(new ByteArrayInputStream(content)));
+  }
+
+  private boolean find(String content) throws IOException {
+    return instance.find(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+  }
+}
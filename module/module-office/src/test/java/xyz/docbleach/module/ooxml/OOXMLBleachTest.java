@@ -1,19 +1,25 @@
 package xyz.docbleach.module.ooxml;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
 import org.apache.poi.openxml4j.opc.internal.ContentType;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
+import xyz.docbleach.api.BleachSession;
+import xyz.docbleach.api.exception.BleachException;
 
 class OOXMLBleachTest {
 
@@ -137,4 +143,31 @@ class OOXMLBleachTest {
     InputStream invalidInputStream3 = new ByteArrayInputStream("Anything".getBytes(cs));
     assertFalse(instance.handlesMagic(invalidInputStream3));
   }
+
+  @Test
+  void onlyHandlesPackages() throws IOException {
+    assertTrue(instance.handlesMagic(new ByteArrayInputStream(zip("[Content_Types].xml"))));
+    assertFalse(instance.handlesMagic(new ByteArrayInputStream(zip("readme.txt"))));
+  }
+
+  @Test
+  void invalidPackagesAreRemoved() throws IOException, BleachException {
+    BleachSession session = new BleachSession(instance);
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    session.sanitize(new ByteArrayInputStream(zip("[Content_Types].xml")), os);
+
+    assertEquals(1, session.threatCount());
+    assertEquals(0, os.size());
+  }
+
+  /**
+   * @return an archive holding a single empty entry
+   */
+  private static byte[] zip(String name) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (ZipOutputStream zipOut = new ZipOutputStream(bos)) {
+      zipOut.putNextEntry(new ZipEntry(name));
+    }
+    return bos.toByteArray();
+  }
 }
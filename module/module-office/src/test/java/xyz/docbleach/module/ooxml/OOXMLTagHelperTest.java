@@ -0,0 +1,90 @@
+package xyz.docbleach.module.ooxml;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackagePartName;
+import org.apache.poi.openxml4j.opc.PackagingURIHelper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import xyz.docbleach.api.BleachSession;
+import xyz.docbleach.api.util.StreamUtils;
+
+class OOXMLTagHelperTest {
+
+  private static final String DECLARATION =
+      "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\r\n";
+  private static final String NAMESPACES =
+      " xmlns:c=\"http://schemas.openxmlformats.org/drawingml/2006/chart\""
+          + " xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\"";
+
+  private BleachSession session;
+
+  @BeforeEach
+  void setUp() {
+    session = new BleachSession(new OOXMLBleach());
+  }
+
+  @Test
+  void cleanPartIsUntouched() throws IOException, InvalidFormatException {
+    String xml = DECLARATION + "<c:chartSpace" + NAMESPACES + ">\n  <c:date1904 val=\"0\"/>"
+        + "<c:txt>&lt;Hello&gt;</c:txt></c:chartSpace>";
+
+    assertEquals(xml, sanitize(xml));
+    assertEquals(0, session.threatCount());
+  }
+
+  @Test
+  void externalDataIsRemoved() throws IOException, InvalidFormatException {
+    String xml = DECLARATION + "<c:chartSpace" + NAMESPACES + "><c:date1904 val=\"0\"/>"
+        + "<c:externalData r:id=\"rId1\"><c:autoUpdate val=\"0\"/></c:externalData>"
+        + "</c:chartSpace>";
+
+    assertEquals(DECLARATION + "<c:chartSpace" + NAMESPACES + "><c:date1904 val=\"0\"/>"
+        + "<!-- bleached --></c:chartSpace>", sanitize(xml));
+    assertEquals(1, session.threatCount());
+  }
+
+  @Test
+  void ddeIsNeutralized() throws IOException, InvalidFormatException {
+    String xml = DECLARATION + "<c:chartSpace" + NAMESPACES + ">"
+        + "<c:ddeLink ddeService=\"cmd.exe\" ddeTopic=\"/c calc\"/>"
+        + "<c:txt val=\"DDEAUTO a\">x DDEAUTO y \u00e9</c:txt></c:chartSpace>";
+
+    assertEquals(DECLARATION + "<c:chartSpace" + NAMESPACES + ">"
+        + "<c:ddeLink ddeService=\"cmd\" ddeTopic=\"exit\"/>"
+        + "<c:txt val=\" a\">x  y \u00e9</c:txt></c:chartSpace>", sanitize(xml));
+    assertEquals(1, session.threatCount());
+  }
+
+  private String sanitize(String xml) throws IOException, InvalidFormatException {
+    PackagePartName name = PackagingURIHelper.createPartName("/chart1.xml");
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (OPCPackage pkg = OPCPackage.create(bos)) {
+      PackagePart part = pkg.createPart(name, "application/xml");
+      try (OutputStream os = part.getOutputStream()) {
+        os.write(xml.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+
+    try (OPCPackage pkg = OPCPackage.open(new ByteArrayInputStream(bos.toByteArray()))) {
+      OOXMLTagHelper.removeExternalDataTagAndDDE(session, pkg.getPart(name));
+
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      try (InputStream is = pkg.getPart(name).getInputStream()) {
+        StreamUtils.copy(is, os);
+      }
+      pkg.revert();
+      return new String(os.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -1,92 +1,226 @@
 package xyz.docbleach.module.pdf;
 
-import java.util.Collection;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import org.apache.pdfbox.cos.COSArray;
 import org.apache.pdfbox.cos.COSBase;
 import org.apache.pdfbox.cos.COSBoolean;
 import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSDocument;
 import org.apache.pdfbox.cos.COSName;
 import org.apache.pdfbox.cos.COSNull;
 import org.apache.pdfbox.cos.COSNumber;
 import org.apache.pdfbox.cos.COSObject;
-import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSObjectKey;
 import org.apache.pdfbox.cos.COSString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Removes JavaScript and additional actions from every object reachable from the trailer, which
+ * are the objects written when the document is saved. The dictionaries of the streams are walked
+ * too, but not their content.
+ *
+ * <p>The object graph is walked using explicit stacks, and each dictionary or array is only
+ * visited once: the walk is linear in the number of objects, whatever their nesting, sharing or
+ * cycles. Documents of at least {@value #PARALLEL_THRESHOLD} objects are walked by several
+ * threads, sharing the indirect objects left to visit.
+ */
 class COSObjectBleach {
 
+  static final int PARALLEL_THRESHOLD = 10_000;
   private static final Logger LOGGER = LoggerFactory.getLogger(COSObjectBleach.class);
+  private static final long IDLE_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
   private final PdfBleachSession pdfBleachSession;
 
   COSObjectBleach(PdfBleachSession pdfBleachSession) {
     this.pdfBleachSession = pdfBleachSession;
   }
 
-  private void crawl(COSBase base) {
-    if (base == null) {
-      return;
-    }
+  /**
+   * Walks an object's direct content. Referenced objects are handed to the crawl, so other threads
+   * may visit them.
+   */
+  private void crawl(COSBase object, Crawl crawl) {
+    Deque<COSBase> stack = new ArrayDeque<>();
+    stack.push(object);
 
-    if (base instanceof COSName
-        || base instanceof COSString
-        || base instanceof COSStream
-        || base instanceof COSNull
-        || base instanceof COSObject
-        || base instanceof COSNumber
-        || base instanceof COSBoolean) {
-      return;
+    while (!stack.isEmpty()) {
+      COSBase base = stack.pop();
+      if (base instanceof COSDictionary) {
+        sanitizeDictionary((COSDictionary) base, stack, crawl);
+      } else {
+        for (COSBase item : (COSArray) base) {
+          push(item, stack, crawl);
+        }
+      }
     }
+  }
 
-    if (base instanceof COSDictionary) {
-      COSDictionary dict = (COSDictionary) base;
-      Iterator<Entry<COSName, COSBase>> it = dict.entrySet().iterator();
-      while (it.hasNext()) {
-        Map.Entry<COSName, COSBase> entry = it.next();
-        if ("JS".equals(entry.getKey().getName())
-            || "JavaScript".equals(entry.getKey().getName())) {
-          it.remove();
-          LOGGER.debug("Found and removed Javascript code");
-          pdfBleachSession.recordJavascriptThreat("?", "JS Code");
-          continue;
-        }
+  private void sanitizeDictionary(COSDictionary dict, Deque<COSBase> stack, Crawl crawl) {
+    Iterator<Entry<COSName, COSBase>> it = dict.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<COSName, COSBase> entry = it.next();
+      if ("JS".equals(entry.getKey().getName())
+          || "JavaScript".equals(entry.getKey().getName())) {
+        it.remove();
+        LOGGER.debug("Found and removed Javascript code");
+        pdfBleachSession.recordJavascriptThreat("?", "JS Code");
+        continue;
+      }
 
-        if ("S".equals(entry.getKey().getName())) {
-          if (entry.getValue() instanceof COSName) {
-            if ("JavaScript".equals(((COSName) entry.getValue()).getName())) {
-              LOGGER.debug("Found and removed Javascript code");
-              it.remove();
-              pdfBleachSession.recordJavascriptThreat("?", "JS Code");
-              continue;
-            }
+      if ("S".equals(entry.getKey().getName())) {
+        if (entry.getValue() instanceof COSName) {
+          if ("JavaScript".equals(((COSName) entry.getValue()).getName())) {
+            LOGGER.debug("Found and removed Javascript code");
+            it.remove();
+            pdfBleachSession.recordJavascriptThreat("?", "JS Code");
+            continue;
           }
         }
+      }
 
-        if ("AA".equals(entry.getKey().getName())) {
+      if ("AA".equals(entry.getKey().getName())) {
+        it.remove();
+        // The other bleaches may leave empty ones behind, as PDFBox creates them when read
+        if (!isEmptyDictionary(entry.getValue())) {
           LOGGER.debug("Found and removed Additionnal Actions");
-          it.remove();
           pdfBleachSession.recordJavascriptThreat("?", "Additional Actions");
-          continue;
         }
-        crawl(entry.getValue());
-      }
-    } else if (base instanceof COSArray) {
-      COSArray ar = (COSArray) base;
-
-      for (COSBase item : ar) {
-        crawl(item);
+        continue;
       }
-    } else {
-      LOGGER.error("Unknown COS type: {}", base);
+      push(entry.getValue(), stack, crawl);
     }
   }
 
+  private static boolean isEmptyDictionary(COSBase value) {
+    COSBase resolved = value instanceof COSObject ? ((COSObject) value).getObject() : value;
+    return resolved instanceof COSDictionary && ((COSDictionary) resolved).size() == 0;
+  }
+
+  /**
+   * Schedules a value: direct dictionaries and arrays are visited by the current thread, indirect
+   * ones are handed to the crawl.
+   */
+  private static void push(COSBase value, Deque<COSBase> stack, Crawl crawl) {
+    if (value instanceof COSObject) {
+      crawl.reach((COSObject) value);
+    } else if (crawl.claim(value)) {
+      stack.push(value);
+    }
+  }
 
-  void sanitizeObjects(Collection<COSObject> objects) {
+  /**
+   * @param document the document, parsed already
+   * @return the indirect objects reached from the trailer
+   */
+  Set<COSObjectKey> sanitizeObjects(COSDocument document) {
     LOGGER.trace("Checking all objects..."); // Most destructive operation
-    objects.forEach(this::crawl);
+    Crawl crawl = new Crawl();
+    crawl.add(document.getTrailer());
+
+    int threads = ParallelRunner.threadsFor(document.getObjects().size(), PARALLEL_THRESHOLD);
+    if (threads < 2) {
+      crawl.run(false);
+      return crawl.reached;
+    }
+
+    // The objects were resolved by the parser: reading them from several threads is safe
+    ParallelRunner.run(threads, () -> crawl.run(true), "check the objects");
+    return crawl.reached;
+  }
+
+  /**
+   * The state of a walk: the dictionaries and arrays visited already, and the indirect objects
+   * waiting for a thread.
+   */
+  private class Crawl {
+
+    /**
+     * Dictionaries and arrays do not override equals: their identity is used
+     */
+    private final Set<COSBase> visited = ConcurrentHashMap.newKeySet();
+    private final Queue<COSBase> objects = new ConcurrentLinkedQueue<>();
+    private final Set<COSObjectKey> reached = ConcurrentHashMap.newKeySet();
+    /**
+     * Indirect objects queued or being visited
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+    /**
+     * Set once a thread failed, to stop the others
+     */
+    private volatile boolean aborted = false;
+
+    /**
+     * @return true if the value is a dictionary or array that was not visited yet. It is then
+     * visited by the caller, which is the only thread allowed to modify it
+     */
+    boolean claim(COSBase value) {
+      if (value == null || isLeaf(value)) {
+        return false;
+      }
+      if (!(value instanceof COSDictionary) && !(value instanceof COSArray)) {
+        LOGGER.error("Unknown COS type: {}", value);
+        return false;
+      }
+      return visited.add(value);
+    }
+
+    void reach(COSObject object) {
+      reached.add(new COSObjectKey(object));
+      add(object.getObject());
+    }
+
+    void add(COSBase object) {
+      if (claim(object)) {
+        pending.incrementAndGet();
+        objects.add(object);
+      }
+    }
+
+    /**
+     * Visits queued objects until none is left.
+     *
+     * @param shared true if other threads run the crawl too: one of them may still add objects
+     * while the queue is empty
+     */
+    void run(boolean shared) {
+      while (!aborted && pending.get() > 0) {
+        COSBase object = objects.poll();
+        if (object == null) {
+          if (shared) {
+            LockSupport.parkNanos(IDLE_WAIT_NANOS);
+          }
+          continue;
+        }
+
+        try {
+          crawl(object, this);
+        } catch (RuntimeException e) {
+          aborted = true;
+          throw e;
+        } finally {
+          pending.decrementAndGet();
+        }
+      }
+    }
+
+    private boolean isLeaf(COSBase value) {
+      return value instanceof COSName
+          || value instanceof COSString
+          || value instanceof COSNull
+          || value instanceof COSNumber
+          || value instanceof COSBoolean;
+    }
   }
 }
@@ -0,0 +1,391 @@
+package xyz.docbleach.module.pdf;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDocument;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.cos.COSObjectKey;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks that every byte of a PDF file belongs to the document. The file must hold the header, then
+ * the objects of its cross-reference table back to back, then the table and trailer, and end with
+ * "%%EOF". Only whitespace may separate them: comments and unknown data, where another format
+ * could be hidden in a polyglot file, are not accepted.
+ */
+final class LayoutChecker {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(LayoutChecker.class);
+  /**
+   * The comment following the header, flagging the file as binary, only holds a few bytes
+   */
+  private static final int MAX_BINARY_COMMENT = 32;
+  private static final int MAX_NESTING = 256;
+  private static final int XREF_ENTRY_DIGITS = 10;
+  private static final int XREF_GENERATION_DIGITS = 5;
+
+  private final RandomAccessRead source;
+  private final COSDocument document;
+
+  private LayoutChecker(RandomAccessRead source, COSDocument document) {
+    this.source = source;
+    this.document = document;
+  }
+
+  /**
+   * @param source the file
+   * @param document the document parsed from the file, with its cross-reference table
+   * @return true if the file only holds the document's structure
+   */
+  static boolean isFullyAccounted(RandomAccessRead source, COSDocument document)
+      throws IOException {
+    try {
+      new LayoutChecker(source, document).check();
+      return true;
+    } catch (LayoutException e) {
+      LOGGER.debug("Unexpected layout: {}", e.getMessage());
+      return false;
+    }
+  }
+
+  private void check() throws IOException {
+    long startxref = document.getStartXref();
+    // Objects stored in object streams have negative offsets
+    TreeMap<Long, COSObjectKey> objects = new TreeMap<>();
+    for (Map.Entry<COSObjectKey, Long> entry : document.getXrefTable().entrySet()) {
+      if (entry.getValue() > 0 && objects.put(entry.getValue(), entry.getKey()) != null) {
+        throw new LayoutException("two objects at " + entry.getValue());
+      }
+    }
+    if (document.isXRefStream()) {
+      // The cross-reference stream is the last object
+      objects.putIfAbsent(startxref, null);
+      expect(objects.lastKey() == startxref, "objects after the cross-reference stream");
+    }
+
+    source.seek(0);
+    readHeader();
+    for (Map.Entry<Long, COSObjectKey> object : objects.entrySet()) {
+      skipWhitespace();
+      expect(source.getPosition() == object.getKey(), "data before " + object.getKey());
+      readObject(object.getValue());
+    }
+
+    skipWhitespace();
+    if (!document.isXRefStream()) {
+      expect(source.getPosition() == startxref, "data before the cross-reference table");
+      readXrefTable();
+      skipWhitespace();
+      readKeyword("trailer");
+      skipWhitespace();
+      expect(readValue(0) instanceof Dictionary, "trailer is not a dictionary");
+      skipWhitespace();
+    }
+
+    readKeyword("startxref");
+    skipWhitespace();
+    expect(readInteger() == startxref, "startxref does not match");
+    skipWhitespace();
+    readKeyword("%%EOF");
+    skipWhitespace();
+    expect(source.isEOF(), "data after %%EOF");
+  }
+
+  /**
+   * Reads "%PDF-x.y", and the comment flagging the file as binary, if any.
+   */
+  private void readHeader() throws IOException {
+    readKeyword("%PDF-");
+    expect(isDigit(source.read()) && source.read() == '.' && isDigit(source.read()),
+        "invalid version");
+    readEol();
+
+    if (source.peek() != '%') {
+      return;
+    }
+    source.read();
+    int length = 0;
+    int b;
+    while (!isEol(b = source.peek())) {
+      expect(b >= 0x80 && ++length <= MAX_BINARY_COMMENT, "comment after the header");
+      source.read();
+    }
+    expect(length > 0, "empty comment after the header");
+    readEol();
+  }
+
+  /**
+   * @param key the object expected at this position, null if it is not in the table
+   */
+  private void readObject(COSObjectKey key) throws IOException {
+    long number = readInteger();
+    skipWhitespace();
+    long generation = readInteger();
+    expect(key == null || key.getNumber() == number && key.getGeneration() == generation,
+        "object " + number + " " + generation + " found instead of " + key);
+    skipWhitespace();
+    readKeyword("obj");
+    skipWhitespace();
+    Object value = readValue(0);
+    skipWhitespace();
+
+    if (source.peek() == 's') {
+      expect(value instanceof Dictionary, "stream without a dictionary");
+      readKeyword("stream");
+      // The keyword is followed by CRLF or LF
+      if (source.peek() == '\r') {
+        source.read();
+      }
+      expect(source.read() == '\n', "no end of line after the stream keyword");
+      long end = source.getPosition() + streamLength((Dictionary) value);
+      expect(end <= source.length(), "stream longer than the file");
+      source.seek(end);
+      skipWhitespace();
+      readKeyword("endstream");
+      skipWhitespace();
+    }
+    readKeyword("endobj");
+  }
+
+  private long streamLength(Dictionary dictionary) throws IOException {
+    Object length = dictionary.values.get("Length");
+    long value;
+    if (length instanceof Long) {
+      value = (Long) length;
+    } else {
+      expect(length instanceof COSObjectKey, "invalid stream length");
+      COSBase resolved = document.getObjectFromPool((COSObjectKey) length).getObject();
+      expect(resolved instanceof COSNumber, "invalid stream length");
+      value = ((COSNumber) resolved).longValue();
+    }
+    expect(value >= 0, "negative stream length");
+    return value;
+  }
+
+  private void readXrefTable() throws IOException {
+    readKeyword("xref");
+    skipWhitespace();
+    while (isDigit(source.peek())) {
+      readInteger();
+      expect(source.read() == ' ', "invalid subsection");
+      long count = readInteger();
+      skipWhitespace();
+      for (long i = 0; i < count; i++) {
+        readDigits(XREF_ENTRY_DIGITS);
+        expect(source.read() == ' ', "invalid entry");
+        readDigits(XREF_GENERATION_DIGITS);
+        expect(source.read() == ' ', "invalid entry");
+        int type = source.read();
+        expect(type == 'n' || type == 'f', "invalid entry");
+        // Each entry ends with two bytes: SP CR, SP LF or CRLF
+        for (int j = 0; j < 2; j++) {
+          int b = source.read();
+          expect(b == ' ' || isEol(b), "invalid entry");
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads a direct object.
+   *
+   * @return the value of integers, the key of references, a {@link Dictionary} for dictionaries,
+   * and null for anything else
+   */
+  private Object readValue(int depth) throws IOException {
+    expect(depth < MAX_NESTING, "too many nested objects");
+    int b = source.peek();
+    switch (b) {
+      case '<':
+        source.read();
+        if (source.peek() == '<') {
+          source.read();
+          return readDictionary(depth);
+        }
+        readHexString();
+        return null;
+      case '[':
+        source.read();
+        while (true) {
+          skipWhitespace();
+          if (source.peek() == ']') {
+            source.read();
+            return null;
+          }
+          readValue(depth + 1);
+        }
+      case '(':
+        source.read();
+        readLiteralString();
+        return null;
+      case '/':
+        readName();
+        return null;
+      default:
+        if (isDigit(b) || b == '+' || b == '-' || b == '.') {
+          return readNumberOrReference();
+        }
+        String keyword = readToken();
+        expect("true".equals(keyword) || "false".equals(keyword) || "null".equals(keyword),
+            "unexpected token " + keyword);
+        return null;
+    }
+  }
+
+  private Dictionary readDictionary(int depth) throws IOException {
+    Dictionary dictionary = new Dictionary();
+    while (true) {
+      skipWhitespace();
+      if (source.peek() == '>') {
+        source.read();
+        expect(source.read() == '>', "invalid end of dictionary");
+        return dictionary;
+      }
+      String key = readName();
+      skipWhitespace();
+      dictionary.values.put(key, readValue(depth + 1));
+    }
+  }
+
+  private void readHexString() throws IOException {
+    int b;
+    while ((b = source.read()) != '>') {
+      expect(isHexDigit(b) || isWhitespace(b), "invalid hexadecimal string");
+    }
+  }
+
+  private void readLiteralString() throws IOException {
+    int depth = 1;
+    while (depth > 0) {
+      int b = source.read();
+      expect(b != -1, "unterminated string");
+      if (b == '\\') {
+        source.read();
+      } else if (b == '(') {
+        depth++;
+      } else if (b == ')') {
+        depth--;
+      }
+    }
+  }
+
+  private String readName() throws IOException {
+    expect(source.read() == '/', "name expected");
+    return readToken();
+  }
+
+  /**
+   * @return the value of an integer, the key of a reference ("12 0 R"), null for a real number
+   */
+  private Object readNumberOrReference() throws IOException {
+    String number = readToken();
+    if (!isInteger(number)) {
+      expect(number.matches("[+-]?[0-9]*\\.[0-9]*"), "invalid number " + number);
+      return null;
+    }
+
+    long afterNumber = source.getPosition();
+    skipWhitespace();
+    if (isDigit(source.peek())) {
+      String generation = readToken();
+      skipWhitespace();
+      if (generation.matches("[0-9]{1,5}") && source.peek() == 'R') {
+        source.read();
+        expect(isDelimiter(source.peek()), "invalid reference");
+        return new COSObjectKey(Long.parseLong(number), Integer.parseInt(generation));
+      }
+    }
+    source.seek(afterNumber);
+    return Long.parseLong(number);
+  }
+
+  private long readInteger() throws IOException {
+    String token = readToken();
+    expect(token.matches("[0-9]{1,18}"), "integer expected instead of " + token);
+    return Long.parseLong(token);
+  }
+
+  private void readDigits(int count) throws IOException {
+    for (int i = 0; i < count; i++) {
+      expect(isDigit(source.read()), "digit expected");
+    }
+  }
+
+  private String readToken() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    while (!isDelimiter(source.peek())) {
+      sb.append((char) source.read());
+    }
+    return sb.toString();
+  }
+
+  private void readKeyword(String keyword) throws IOException {
+    for (int i = 0; i < keyword.length(); i++) {
+      expect(source.read() == keyword.charAt(i), keyword + " expected");
+    }
+  }
+
+  private void readEol() throws IOException {
+    int b = source.read();
+    expect(isEol(b), "end of line expected");
+    if (b == '\r' && source.peek() == '\n') {
+      source.read();
+    }
+  }
+
+  private void skipWhitespace() throws IOException {
+    while (isWhitespace(source.peek())) {
+      source.read();
+    }
+  }
+
+  private static boolean isInteger(String token) {
+    return token.matches("[+-]?[0-9]{1,18}");
+  }
+
+  private static boolean isDigit(int b) {
+    return b >= '0' && b <= '9';
+  }
+
+  private static boolean isHexDigit(int b) {
+    return isDigit(b) || (b >= 'a' && b <= 'f') || (b >= 'A' && b <= 'F');
+  }
+
+  private static boolean isEol(int b) {
+    return b == '\r' || b == '\n';
+  }
+
+  private static boolean isWhitespace(int b) {
+    return b == ' ' || b == '\r' || b == '\n' || b == '\t' || b == '\f' || b == 0;
+  }
+
+  private static boolean isDelimiter(int b) {
+    return b == -1 || isWhitespace(b) || "()<>[]{}/%".indexOf(b) >= 0;
+  }
+
+  private static void expect(boolean condition, String message) throws LayoutException {
+    if (!condition) {
+      throw new LayoutException(message);
+    }
+  }
+
+  /**
+   * The keys of a dictionary, with the values read by {@link #readValue(int)}.
+   */
+  private static class Dictionary {
+
+    private final Map<String, Object> values = new HashMap<>();
+  }
+
+  private static class LayoutException extends IOException {
+
+    LayoutException(String message) {
+      super(message);
+    }
+  }
+}
@@ -1,7 +1,14 @@
 package xyz.docbleach.module.pdf;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.pdfbox.cos.COSDictionary;
 import org.apache.pdfbox.pdmodel.PDDocumentCatalog;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageTree;
@@ -17,6 +24,7 @@ import org.slf4j.LoggerFactory;
 
 class PDDocumentCatalogBleach {
 
+  static final int PARALLEL_THRESHOLD = 1_000;
   private static final Logger LOGGER = LoggerFactory.getLogger(COSObjectBleach.class);
   private final PdfBleachSession pdfBleachSession;
   private final PDAnnotationBleach annotationBleach;
@@ -51,17 +59,58 @@ class PDDocumentCatalogBleach {
     sanitizeFieldAdditionalActions(fieldActions);
   }
 
-  private void sanitizePage(PDPage page) throws IOException {
+  /**
+   * @param annotations the annotations sanitized already: an annotation may be shared by several
+   * pages
+   */
+  private void sanitizePage(PDPage page, Set<COSDictionary> annotations) throws IOException {
     for (PDAnnotation annotation : page.getAnnotations()) {
-      annotationBleach.sanitizeAnnotation(annotation);
-      sanitizePageActions(page.getActions());
+      if (annotations.add(annotation.getCOSObject())) {
+        annotationBleach.sanitizeAnnotation(annotation);
+      }
     }
+    sanitizePageActions(page.getActions());
   }
 
-  private void sanitizePageActions(PDPageTree pages) throws IOException {
+  /**
+   * Sanitizes the annotations and actions of each page. Documents of at least {@value
+   * #PARALLEL_THRESHOLD} pages are split between several threads: each page is only modified by
+   * the thread handling it.
+   */
+  private void sanitizePages(PDPageTree pageTree) throws IOException {
     LOGGER.trace("Checking Pages Actions");
-    for (PDPage page : pages) {
-      sanitizePage(page);
+    // Resolving the tree reads inherited attributes, it is done by a single thread
+    List<PDPage> pages = new ArrayList<>(pageTree.getCount());
+    pageTree.forEach(pages::add);
+    Set<COSDictionary> annotations = ConcurrentHashMap.newKeySet();
+
+    int threads = ParallelRunner.threadsFor(pages.size(), PARALLEL_THRESHOLD);
+    if (threads < 2) {
+      for (PDPage page : pages) {
+        sanitizePage(page, annotations);
+      }
+      return;
+    }
+
+    AtomicInteger next = new AtomicInteger();
+    try {
+      ParallelRunner.run(threads, () -> {
+        int i;
+        while ((i = next.getAndIncrement()) < pages.size()) {
+          try {
+            sanitizePage(pages.get(i), annotations);
+          } catch (IOException e) {
+            // Stops the other threads
+            next.set(pages.size());
+            throw new UncheckedIOException(e);
+          } catch (RuntimeException e) {
+            next.set(pages.size());
+            throw e;
+          }
+        }
+      }, "check the pages");
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
     }
   }
 
@@ -160,7 +209,7 @@ class PDDocumentCatalogBleach {
   void sanitize(PDDocumentCatalog docCatalog) throws IOException {
     sanitizeOpenAction(docCatalog);
     sanitizeDocumentActions(docCatalog.getActions());
-    sanitizePageActions(docCatalog.getPages());
+    sanitizePages(docCatalog.getPages());
     sanitizeAcroFormActions(docCatalog.getAcroForm());
   }
 }
@@ -1,11 +1,27 @@
 package xyz.docbleach.module.pdf;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDEmbeddedFilesNameTreeNode;
 import org.apache.pdfbox.pdmodel.common.COSObjectable;
@@ -14,67 +30,168 @@ import org.apache.pdfbox.pdmodel.common.filespecification.PDComplexFileSpecifica
 import org.apache.pdfbox.pdmodel.common.filespecification.PDEmbeddedFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import xyz.docbleach.api.BleachSession;
+import xyz.docbleach.api.cache.CacheKey;
 import xyz.docbleach.api.exception.BleachException;
+import xyz.docbleach.api.util.BleachExecutors;
+import xyz.docbleach.api.util.CloseShieldInputStream;
+import xyz.docbleach.api.util.StageBuffer;
 
+/**
+ * Sanitizes the files embedded in the document. Each embedded file stream is sanitized once, even
+ * when several file specifications or variants (DOS, Mac, Unix...) point to it. Files of an unknown
+ * type come out of the session empty, and replace the original ones like any sanitized file.
+ *
+ * <p>Files are decoded while the nested bleach reads them, and the sanitized content is compressed
+ * while it is written. When several processors are available, files are sanitized in parallel:
+ * once the files being sanitized reach the memory budget, we wait for the oldest one before
+ * starting the next one. The document itself is only modified by the calling thread.
+ */
 class PDEmbeddedFileBleach {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(COSObjectBleach.class);
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
   private final PdfBleachSession pdfBleachSession;
   private final PDDocument doc;
+  private final long memoryBudget;
 
   PDEmbeddedFileBleach(PdfBleachSession pdfBleachSession, PDDocument doc) {
+    this(pdfBleachSession, doc, PdfBleach.DEFAULT_MEMORY_BUDGET);
+  }
+
+  /**
+   * @param memoryBudget once the files being sanitized reach this size, we wait for the oldest one
+   * before starting the next one
+   */
+  PDEmbeddedFileBleach(PdfBleachSession pdfBleachSession, PDDocument doc, long memoryBudget) {
     this.pdfBleachSession = pdfBleachSession;
     this.doc = doc;
+    this.memoryBudget = memoryBudget;
   }
 
-  private void sanitizeEmbeddedFile(PDComplexFileSpecification fileSpec) {
+  /**
+   * Lists the distinct streams of a file specification's variants.
+   */
+  private void collectEmbeddedFiles(PDComplexFileSpecification fileSpec,
+      Map<COSStream, EmbeddedFile> files) {
     LOGGER.trace("Embedded file found: {}", fileSpec.getFilename());
 
-    fileSpec.setEmbeddedFile(sanitizeEmbeddedFile(fileSpec.getEmbeddedFile()));
-    fileSpec.setEmbeddedFileDos(sanitizeEmbeddedFile(fileSpec.getEmbeddedFileDos()));
-    fileSpec.setEmbeddedFileMac(sanitizeEmbeddedFile(fileSpec.getEmbeddedFileMac()));
-    fileSpec.setEmbeddedFileUnicode(sanitizeEmbeddedFile(fileSpec.getEmbeddedFileUnicode()));
-    fileSpec.setEmbeddedFileUnix(sanitizeEmbeddedFile(fileSpec.getEmbeddedFileUnix()));
+    collectEmbeddedFile(fileSpec.getEmbeddedFile(), files);
+    collectEmbeddedFile(fileSpec.getEmbeddedFileDos(), files);
+    collectEmbeddedFile(fileSpec.getEmbeddedFileMac(), files);
+    collectEmbeddedFile(fileSpec.getEmbeddedFileUnicode(), files);
+    collectEmbeddedFile(fileSpec.getEmbeddedFileUnix(), files);
   }
 
-  private PDEmbeddedFile sanitizeEmbeddedFile(PDEmbeddedFile file) {
-    if (file == null) {
-      return null;
+  private void collectEmbeddedFile(PDEmbeddedFile file, Map<COSStream, EmbeddedFile> files) {
+    if (file != null) {
+      files.computeIfAbsent(file.getCOSObject(), stream -> new EmbeddedFile(file));
     }
+  }
+
+  private void replaceEmbeddedFiles(PDComplexFileSpecification fileSpec,
+      Map<COSStream, EmbeddedFile> files) {
+    fileSpec.setEmbeddedFile(replacement(fileSpec.getEmbeddedFile(), files));
+    fileSpec.setEmbeddedFileDos(replacement(fileSpec.getEmbeddedFileDos(), files));
+    fileSpec.setEmbeddedFileMac(replacement(fileSpec.getEmbeddedFileMac(), files));
+    fileSpec.setEmbeddedFileUnicode(replacement(fileSpec.getEmbeddedFileUnicode(), files));
+    fileSpec.setEmbeddedFileUnix(replacement(fileSpec.getEmbeddedFileUnix(), files));
+  }
+
+  private static PDEmbeddedFile replacement(PDEmbeddedFile file,
+      Map<COSStream, EmbeddedFile> files) {
+    return file == null ? null : files.get(file.getCOSObject()).replacement;
+  }
 
+  /**
+   * Decodes the file into the nested bleach, and compresses its output.
+   *
+   * @return the sanitized file, or null if it could not be read or sanitized
+   */
+  private SanitizedFile sanitizeEmbeddedFile(BleachSession session, PDEmbeddedFile file) {
     LOGGER.debug("Sanitizing file: Size: {}, Mime-Type: {}, ", file.getSize(), file.getSubtype());
 
-    ByteArrayInputStream is;
-    try {
-      is = new ByteArrayInputStream(file.toByteArray());
+    MessageDigest originalDigest = CacheKey.newDigest();
+    MessageDigest sanitizedDigest = CacheKey.newDigest();
+    StageBuffer content = new StageBuffer();
+    Deflater deflater = new Deflater();
+    long size;
+
+    try (InputStream is = new BufferedInputStream(
+        new DigestInputStream(file.createInputStream(), originalDigest), READ_BUFFER_SIZE)) {
+      DeflaterOutputStream deflated = new DeflaterOutputStream(content, deflater);
+      session.sanitize(new CloseShieldInputStream(is),
+          new DigestOutputStream(deflated, sanitizedDigest));
+      deflated.finish();
+      size = deflater.getBytesRead();
+      // The nested bleach may stop before the end of the file, which is still part of its digest
+      drain(is);
     } catch (IOException e) {
       LOGGER.error("Error during original's file read", e);
+      content.release();
       return null;
-    }
-    ByteArrayOutputStream os = new ByteArrayOutputStream();
-
-    try {
-      pdfBleachSession.getSession().sanitize(is, os);
     } catch (BleachException e) {
       LOGGER.error("Error during the bleach process", e);
+      content.release();
       return null;
+    } catch (RuntimeException e) {
+      content.release();
+      throw e;
+    } finally {
+      deflater.end();
+    }
+
+    boolean unchanged = Arrays.equals(originalDigest.digest(), sanitizedDigest.digest());
+    return new SanitizedFile(content, size, unchanged);
+  }
+
+  private static void drain(InputStream is) throws IOException {
+    byte[] buffer = new byte[READ_BUFFER_SIZE];
+    while (is.read(buffer) != -1) {
+      // Only read for the digest
     }
+  }
 
-    ByteArrayInputStream fakeFile = new ByteArrayInputStream(os.toByteArray());
+  /**
+   * Stores a sanitized file in the document, on the calling thread, and empties the original one.
+   */
+  private void replaceEmbeddedFile(EmbeddedFile embedded, SanitizedFile sanitized) {
+    if (sanitized == null) {
+      pdfBleachSession.markModified();
+      embedded.replacement = null;
+      return;
+    }
+    if (sanitized.unchanged) {
+      // The file was sane already, it is kept as is
+      sanitized.content.release();
+      return;
+    }
+    pdfBleachSession.markModified();
 
+    PDEmbeddedFile file = embedded.file;
     PDEmbeddedFile ef;
     try {
-      ef = new PDEmbeddedFile(doc, fakeFile, COSName.FLATE_DECODE);
+      COSStream stream = doc.getDocument().createCOSStream();
+      try (OutputStream os = stream.createRawOutputStream()) {
+        // The content was compressed by the worker already
+        sanitized.content.writeTo(os);
+      }
+      stream.setItem(COSName.FILTER, COSName.FLATE_DECODE);
+      stream.setName(COSName.TYPE, "EmbeddedFile");
+      ef = new PDEmbeddedFile(stream);
       ef.setCreationDate(file.getCreationDate());
       ef.setModDate(file.getModDate());
     } catch (IOException e) {
       LOGGER.error("Error when creating the new sane file", e);
-      return null;
+      embedded.replacement = null;
+      return;
+    } finally {
+      sanitized.content.release();
     }
 
     // We copy the properties of the real embedded file
     ef.setSubtype(file.getSubtype());
-    ef.setSize(os.size());
+    ef.setSize((int) sanitized.size);
     ef.setMacCreator(file.getMacCreator());
     ef.setMacResFork(file.getMacResFork());
     ef.setMacSubtype(file.getMacSubtype());
@@ -90,9 +207,66 @@ class PDEmbeddedFileBleach {
       LOGGER.error("Error when trying to empty the original embedded file", e);
       // Not severe, don't abort operations.
     }
-    return ef;
+    embedded.replacement = ef;
   }
 
+  private void sanitizeSequentially(List<EmbeddedFile> files) {
+    for (EmbeddedFile file : files) {
+      replaceEmbeddedFile(file, sanitizeEmbeddedFile(pdfBleachSession.getSession(), file.file));
+    }
+  }
+
+  private void sanitizeConcurrently(List<EmbeddedFile> files, int concurrency)
+      throws IOException {
+    BleachSession session = pdfBleachSession.getSession();
+    Deque<PendingFile> pending = new ArrayDeque<>();
+    long pendingBytes = 0;
+
+    try {
+      for (EmbeddedFile file : files) {
+        BleachSession child = session.fork();
+        Future<SanitizedFile> result =
+            BleachExecutors.submit(() -> sanitizeEmbeddedFile(child, file.file));
+        pending.add(new PendingFile(file, child, result));
+        pendingBytes += file.estimatedSize();
+
+        while (!pending.isEmpty() && (pending.size() >= concurrency
+            || pendingBytes >= memoryBudget)) {
+          pendingBytes -= replacePending(session, pending.removeFirst());
+        }
+      }
+
+      while (!pending.isEmpty()) {
+        replacePending(session, pending.removeFirst());
+      }
+    } finally {
+      for (PendingFile file : pending) {
+        file.discard();
+      }
+    }
+  }
+
+  /**
+   * Waits for the oldest file, and stores it in the document.
+   *
+   * @return the estimated size of the file, now freed
+   */
+  private long replacePending(BleachSession session, PendingFile pending) throws IOException {
+    try {
+      SanitizedFile sanitized = pending.result.get();
+      session.merge(pending.session);
+      replaceEmbeddedFile(pending.file, sanitized);
+      return pending.file.estimatedSize();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while sanitizing an embedded file");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
 
   private <T extends COSObjectable> void sanitizeRecursiveNameTree(PDNameTreeNode<T> efTree,
       Consumer<T> callback) {
@@ -119,8 +293,99 @@ class PDEmbeddedFileBleach {
     }
   }
 
+  void sanitize(PDEmbeddedFilesNameTreeNode embeddedFiles) throws IOException {
+    List<PDComplexFileSpecification> fileSpecs = new ArrayList<>();
+    sanitizeRecursiveNameTree(embeddedFiles, fileSpecs::add);
+    if (fileSpecs.isEmpty()) {
+      return;
+    }
+
+    // Dictionaries and streams do not override equals: their identity is used
+    Map<COSStream, EmbeddedFile> files = new IdentityHashMap<>();
+    for (PDComplexFileSpecification fileSpec : fileSpecs) {
+      collectEmbeddedFiles(fileSpec, files);
+    }
+
+    List<EmbeddedFile> distinct = new ArrayList<>(files.values());
+    int concurrency = ParallelRunner.threadsFor(distinct.size(), 2);
+    if (concurrency < 2) {
+      sanitizeSequentially(distinct);
+    } else {
+      sanitizeConcurrently(distinct, concurrency);
+    }
+
+    for (PDComplexFileSpecification fileSpec : fileSpecs) {
+      replaceEmbeddedFiles(fileSpec, files);
+    }
+  }
+
+  /**
+   * An embedded file stream, and what replaces it once sanitized.
+   */
+  private static class EmbeddedFile {
+
+    private final PDEmbeddedFile file;
+    /**
+     * The original file if it was sane, null if it was removed
+     */
+    private PDEmbeddedFile replacement;
 
-  void sanitize(PDEmbeddedFilesNameTreeNode embeddedFiles) {
-    sanitizeRecursiveNameTree(embeddedFiles, this::sanitizeEmbeddedFile);
+    EmbeddedFile(PDEmbeddedFile file) {
+      this.file = file;
+      this.replacement = file;
+    }
+
+    /**
+     * @return the declared size of the file, or the size of its encoded stream
+     */
+    long estimatedSize() {
+      int size = file.getSize();
+      return size > 0 ? size : file.getCOSObject().getLength();
+    }
+  }
+
+  private static class SanitizedFile {
+
+    /**
+     * The sanitized content, compressed using Flate
+     */
+    private final StageBuffer content;
+    private final long size;
+    private final boolean unchanged;
+
+    SanitizedFile(StageBuffer content, long size, boolean unchanged) {
+      this.content = content;
+      this.size = size;
+      this.unchanged = unchanged;
+    }
+  }
+
+  private static class PendingFile {
+
+    private final EmbeddedFile file;
+    private final BleachSession session;
+    private final Future<SanitizedFile> result;
+
+    PendingFile(EmbeddedFile file, BleachSession session, Future<SanitizedFile> result) {
+      this.file = file;
+      this.session = session;
+      this.result = result;
+    }
+
+    /**
+     * Frees the file's output, waiting for its worker so the output is not leaked.
+     */
+    void discard() {
+      try {
+        SanitizedFile sanitized = result.get();
+        if (sanitized != null) {
+          sanitized.content.release();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        LOGGER.debug("Discarded embedded file failed", e);
+      }
+    }
   }
 }
@@ -0,0 +1,80 @@
+package xyz.docbleach.module.pdf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import xyz.docbleach.api.util.BleachExecutors;
+
+/**
+ * Runs a task on several threads of the {@link BleachExecutors}, the calling thread included. The
+ * copies of the task share their work, and are all waited for.
+ */
+final class ParallelRunner {
+
+  private ParallelRunner() {
+    throw new IllegalAccessError("Utility class");
+  }
+
+  /**
+   * @param size the number of items to process
+   * @param threshold the number of items worth using several threads
+   * @return the number of threads to use, 1 to stay on the calling thread
+   */
+  static int threadsFor(int size, int threshold) {
+    // A worker must not wait for other workers, so nested documents are processed sequentially
+    if (size < threshold || BleachExecutors.isWorkerThread()) {
+      return 1;
+    }
+    return Math.max(1, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param threads the number of threads running the task
+   * @param task the task, run once by each thread
+   * @param description what the task does, for error messages
+   */
+  static void run(int threads, Runnable task, String description) {
+    List<Future<?>> workers = new ArrayList<>();
+    for (int i = 1; i < threads; i++) {
+      workers.add(BleachExecutors.submit(() -> {
+        task.run();
+        return null;
+      }));
+    }
+
+    RuntimeException failure = null;
+    try {
+      task.run();
+    } catch (RuntimeException e) {
+      failure = e;
+    }
+
+    // Every worker is waited for, so none is still running once the document is closed
+    boolean interrupted = false;
+    for (Future<?> worker : workers) {
+      while (true) {
+        try {
+          worker.get();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause() instanceof RuntimeException
+                ? (RuntimeException) e.getCause()
+                : new IllegalStateException("Could not " + description, e.getCause());
+          }
+          break;
+        }
+      }
+    }
+
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+}
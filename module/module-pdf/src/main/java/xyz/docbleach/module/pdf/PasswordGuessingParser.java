@@ -0,0 +1,165 @@
+package xyz.docbleach.module.pdf;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObjectKey;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.ScratchFile;
+import org.apache.pdfbox.pdfparser.PDFParser;
+import org.apache.pdfbox.pdfparser.XrefTrailerResolver;
+import org.apache.pdfbox.pdmodel.encryption.InvalidPasswordException;
+import org.apache.pdfbox.pdmodel.encryption.PDEncryption;
+import org.apache.pdfbox.pdmodel.encryption.StandardDecryptionMaterial;
+import org.apache.pdfbox.pdmodel.encryption.StandardSecurityHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parses a PDF file, guessing its password if it is encrypted. The first password is given to
+ * PDFBox: if it is rejected, the others are checked against the /O and /U entries of the
+ * encryption dictionary, which was parsed already, and the parse fails. The file then has to be
+ * parsed again with the password found, as PDFBox does more than setting up the decryption once
+ * the password is accepted: only the cross-reference table is read twice, whatever the number of
+ * passwords tried.
+ *
+ * <p>The cross-reference entries are recorded as they are read from the file, to tell whether
+ * PDFBox had to repair it.
+ */
+class PasswordGuessingParser extends PDFParser {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(PasswordGuessingParser.class);
+
+  private final String[] passwords;
+  private String guessedPassword;
+  private final Map<COSObjectKey, Long> fileXref = new HashMap<>();
+  private boolean rebuilt = false;
+
+  /**
+   * @param source the file to parse
+   * @param passwords the passwords to try, in order. There has to be at least one
+   * @param scratchFile the buffer used by the parsed document
+   */
+  PasswordGuessingParser(RandomAccessRead source, String[] passwords, ScratchFile scratchFile)
+      throws IOException {
+    super(source, passwords[0], scratchFile);
+    this.passwords = passwords;
+    xrefTrailerResolver = new RecordingXrefTrailerResolver();
+  }
+
+  /**
+   * @return the password used to decrypt the document, once parsed
+   */
+  String getPassword() {
+    return passwords[0];
+  }
+
+  /**
+   * @return the password accepted by the document, once the first one was rejected: the file has
+   * to be parsed again with it. Null if none was
+   */
+  String getGuessedPassword() {
+    return guessedPassword;
+  }
+
+  @Override
+  protected COSDictionary retrieveTrailer() throws IOException {
+    try {
+      return super.retrieveTrailer();
+    } catch (InvalidPasswordException e) {
+      guessedPassword = guessPassword();
+      throw e;
+    }
+  }
+
+  /**
+   * Tries the other passwords. The cross-reference table and the encryption dictionary were read
+   * before the first password was rejected: only the encryption key has to be computed again.
+   */
+  private String guessPassword() throws IOException {
+    PDEncryption encryption = getEncryption();
+    COSDictionary trailer = document.getTrailer();
+    if (encryption == null || trailer == null || trailer.getItem(COSName.ROOT) == null
+        || !StandardSecurityHandler.FILTER.equals(encryption.getFilter())) {
+      return null;
+    }
+
+    for (int i = 1; i < passwords.length; i++) {
+      StandardSecurityHandler handler = new StandardSecurityHandler();
+      try {
+        handler.prepareForDecryption(encryption, document.getDocumentID(),
+            new StandardDecryptionMaterial(passwords[i]));
+        return passwords[i];
+      } catch (InvalidPasswordException e) {
+        LOGGER.trace("The tested password is invalid");
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Tells whether the parsed document is exactly what the file holds, once it was parsed and its
+   * objects were walked.
+   *
+   * @param reached the objects reached from the trailer
+   * @return true if the file has a single revision, which was read without repairs, and if every
+   * object of its cross-reference table is reached from the trailer
+   */
+  boolean isIntact(Set<COSObjectKey> reached) throws IOException {
+    long startxref = document.getStartXref();
+    // Repairs replace the entries read from the file, objects found later are added to them
+    if (rebuilt || xrefTrailerResolver.getTrailerCount() != 1 || readStartxref() != startxref
+        || !fileXref.equals(document.getXrefTable()) || !fileXref.keySet().containsAll(reached)) {
+      return false;
+    }
+
+    // The object streams and the cross-reference stream are not referenced
+    Set<Long> objectStreams = new HashSet<>();
+    for (long offset : fileXref.values()) {
+      if (offset < 0) {
+        objectStreams.add(-offset);
+      }
+    }
+    for (Map.Entry<COSObjectKey, Long> entry : fileXref.entrySet()) {
+      if (!reached.contains(entry.getKey()) && entry.getValue() != startxref
+          && !objectStreams.contains(entry.getKey().getNumber())) {
+        LOGGER.debug("Object {} is not used by the document", entry.getKey());
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the offset written after the last "startxref" keyword, before PDFBox checks it
+   */
+  private long readStartxref() throws IOException {
+    source.seek(getStartxrefOffset());
+    readExpectedString("startxref".toCharArray(), true);
+    return readLong();
+  }
+
+  /**
+   * Keeps a copy of the cross-reference entries read from the file.
+   */
+  private class RecordingXrefTrailerResolver extends XrefTrailerResolver {
+
+    @Override
+    public void setXRef(COSObjectKey objKey, long offset) {
+      // As the resolver, keeps the first entry of each object
+      fileXref.putIfAbsent(objKey, offset);
+      super.setXRef(objKey, offset);
+    }
+
+    @Override
+    protected void reset() {
+      // Only done when the trailer is rebuilt from the objects found in the file
+      rebuilt = true;
+      super.reset();
+    }
+  }
+}
@@ -1,28 +1,98 @@
 package xyz.docbleach.module.pdf;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccessBuffer;
 import org.apache.pdfbox.io.RandomAccessBufferedFileInputStream;
 import org.apache.pdfbox.io.RandomAccessRead;
 import xyz.docbleach.api.BleachSession;
 import xyz.docbleach.api.bleach.Bleach;
 import xyz.docbleach.api.exception.BleachException;
+import xyz.docbleach.api.util.FileBackedInputStream;
 import xyz.docbleach.api.util.StreamUtils;
 
 /**
  * PDF parsing is a bit tricky: everything may or may not be linked to additional actions, so we
  * need to treat each and every elements.
+ *
+ * <p>While a document is processed, PDFBox keeps its streams in a scratch buffer: in memory up to
+ * a limit, then in temporary files. When created by the {@link
+ * xyz.docbleach.api.bleach.DefaultBleach}, the limit and the directory of the temporary files are
+ * read from the {@value #MAX_MAIN_MEMORY_PROPERTY} and {@value #SCRATCH_DIRECTORY_PROPERTY} system
+ * properties. A tmpfs directory keeps the scratch files off the disk.
  */
 public class PdfBleach implements Bleach {
 
+  public static final String MAX_MAIN_MEMORY_PROPERTY = "docbleach.pdf.maxMainMemory";
+  public static final String SCRATCH_DIRECTORY_PROPERTY = "docbleach.pdf.scratchDirectory";
+  public static final String MEMORY_BUDGET_PROPERTY = "docbleach.pdf.memoryBudget";
+  /**
+   * Default amount of scratch bytes kept in memory, per document: 100KB
+   */
+  public static final long DEFAULT_MAX_MAIN_MEMORY = 1024 * 100;
+  /**
+   * Default amount of embedded file bytes being sanitized at the same time, per document: 64MB
+   */
+  public static final long DEFAULT_MEMORY_BUDGET = 64 * 1024 * 1024;
+
   private static final byte[] PDF_MAGIC = new byte[]{37, 80, 68, 70};
 
+  private final MemoryUsageSetting memoryUsageSetting;
+  private final long memoryBudget;
+
+  public PdfBleach() {
+    this(Long.getLong(MAX_MAIN_MEMORY_PROPERTY, DEFAULT_MAX_MAIN_MEMORY),
+        scratchDirectory(System.getProperty(SCRATCH_DIRECTORY_PROPERTY)),
+        Long.getLong(MEMORY_BUDGET_PROPERTY, DEFAULT_MEMORY_BUDGET));
+  }
+
+  /**
+   * @param maxMainMemory scratch bytes kept in memory before using temporary files, per document.
+   * 0 to only use temporary files, -1 to never use them
+   * @param scratchDirectory the directory of the temporary files, null for the default one
+   */
+  public PdfBleach(long maxMainMemory, File scratchDirectory) {
+    this(maxMainMemory, scratchDirectory, DEFAULT_MEMORY_BUDGET);
+  }
+
+  /**
+   * @param maxMainMemory scratch bytes kept in memory before using temporary files, per document.
+   * 0 to only use temporary files, -1 to never use them
+   * @param scratchDirectory the directory of the temporary files, null for the default one
+   * @param memoryBudget once the embedded files being sanitized reach this size, we wait for the
+   * oldest one before starting the next one
+   */
+  public PdfBleach(long maxMainMemory, File scratchDirectory, long memoryBudget) {
+    MemoryUsageSetting setting;
+    if (maxMainMemory < 0) {
+      setting = MemoryUsageSetting.setupMainMemoryOnly();
+    } else if (maxMainMemory == 0) {
+      setting = MemoryUsageSetting.setupTempFileOnly();
+    } else {
+      setting = MemoryUsageSetting.setupMixed(maxMainMemory);
+    }
+    memoryUsageSetting = setting.setTempDir(scratchDirectory);
+    this.memoryBudget = Math.max(0, memoryBudget);
+  }
+
+  private static File scratchDirectory(String path) {
+    return path == null || path.isEmpty() ? null : new File(path);
+  }
+
   @Override
   public boolean handlesMagic(InputStream stream) {
     return StreamUtils.hasHeader(stream, PDF_MAGIC);
   }
 
+  @Override
+  public byte[][] getMagicSignatures() {
+    return new byte[][]{PDF_MAGIC};
+  }
+
   @Override
   public String getName() {
     return "PDF Bleach";
@@ -31,10 +101,25 @@ public class PdfBleach implements Bleach {
   @Override
   public void sanitize(InputStream inputStream, OutputStream outputStream, BleachSession session)
       throws BleachException {
-    try (RandomAccessRead source = new RandomAccessBufferedFileInputStream(inputStream)) {
-      new PdfBleachSession(session).sanitize(source, outputStream);
+    try (RandomAccessRead source = openSource(inputStream)) {
+      new PdfBleachSession(session, memoryUsageSetting, memoryBudget).sanitize(source, outputStream);
     } catch (IOException e) {
       throw new BleachException(e);
     }
   }
+
+  /**
+   * Files are read in place, and in-memory streams stay in memory. Other streams are copied to a
+   * temporary file, as the parser needs random access.
+   */
+  private static RandomAccessRead openSource(InputStream inputStream) throws IOException {
+    File file = FileBackedInputStream.getUntouchedFile(inputStream);
+    if (file != null) {
+      return new RandomAccessBufferedFileInputStream(file);
+    }
+    if (StreamUtils.unwrap(inputStream) instanceof ByteArrayInputStream) {
+      return new RandomAccessBuffer(inputStream);
+    }
+    return new RandomAccessBufferedFileInputStream(inputStream);
+  }
 }
\ No newline at end of file
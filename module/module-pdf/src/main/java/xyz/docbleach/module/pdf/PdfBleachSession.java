@@ -1,12 +1,12 @@
 package xyz.docbleach.module.pdf;
 
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Set;
+import org.apache.pdfbox.cos.COSObjectKey;
 import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.io.RandomAccessRead;
 import org.apache.pdfbox.io.ScratchFile;
-import org.apache.pdfbox.pdfparser.PDFParser;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDDocumentCatalog;
 import org.apache.pdfbox.pdmodel.PDDocumentNameDictionary;
@@ -27,33 +27,69 @@ class PdfBleachSession {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(PdfBleachSession.class);
   private static final String[] COMMON_PASSWORDS =
-      new String[]{null, "", "test", "example", "sample", "malware", "infected", "password"};
-  private static final MemoryUsageSetting MEMORY_USAGE_SETTING =
-      MemoryUsageSetting.setupMixed(1024 * 100);
+      new String[]{"", "test", "example", "sample", "malware", "infected", "password"};
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
 
   private final BleachSession session;
+  private final MemoryUsageSetting memoryUsageSetting;
+  private final long memoryBudget;
   private final COSObjectBleach cosObjectBleach;
+  /**
+   * True once the document was changed: it then has to be saved, instead of copied
+   */
+  private volatile boolean modified = false;
 
   PdfBleachSession(BleachSession session) {
+    this(session, MemoryUsageSetting.setupMixed(PdfBleach.DEFAULT_MAX_MAIN_MEMORY),
+        PdfBleach.DEFAULT_MEMORY_BUDGET);
+  }
+
+  /**
+   * @param session the session recording the threats
+   * @param memoryUsageSetting how the document's streams are buffered
+   * @param memoryBudget amount of embedded file bytes being sanitized at the same time
+   */
+  PdfBleachSession(BleachSession session, MemoryUsageSetting memoryUsageSetting,
+      long memoryBudget) {
     this.session = session;
+    this.memoryUsageSetting = memoryUsageSetting;
+    this.memoryBudget = memoryBudget;
     cosObjectBleach = new COSObjectBleach(this);
   }
 
   void sanitize(RandomAccessRead source, OutputStream outputStream)
       throws IOException, BleachException {
-    final PDDocument doc = getDocument(source);
-
-    final PDDocumentCatalog docCatalog = doc.getDocumentCatalog();
-
-    sanitizeNamed(doc, docCatalog.getNames());
-    PDDocumentCatalogBleach catalogBleach = new PDDocumentCatalogBleach(this);
-    catalogBleach.sanitize(docCatalog);
-    sanitizeDocumentOutline(doc.getDocumentCatalog().getDocumentOutline());
-
-    cosObjectBleach.sanitizeObjects(doc.getDocument().getObjects());
+    PasswordGuessingParser parser = parse(source);
+    try (PDDocument doc = getDocument(parser)) {
+      final PDDocumentCatalog docCatalog = doc.getDocumentCatalog();
+
+      sanitizeNamed(doc, docCatalog.getNames());
+      PDDocumentCatalogBleach catalogBleach = new PDDocumentCatalogBleach(this);
+      catalogBleach.sanitize(docCatalog);
+      sanitizeDocumentOutline(doc.getDocumentCatalog().getDocumentOutline());
+
+      Set<COSObjectKey> reached = cosObjectBleach.sanitizeObjects(doc.getDocument());
+
+      // Saving drops what the document does not use: older revisions, data after its end...
+      if (modified || !parser.isIntact(reached)
+          || !LayoutChecker.isFullyAccounted(source, doc.getDocument())) {
+        doc.save(outputStream);
+      } else {
+        // Saving would rewrite and compress every object again, for the same content
+        LOGGER.debug("Nothing was removed, keeping the original file");
+        copy(source, outputStream);
+      }
+    }
+  }
 
-    doc.save(outputStream);
-    doc.close();
+  private static void copy(RandomAccessRead source, OutputStream outputStream)
+      throws IOException {
+    byte[] buffer = new byte[COPY_BUFFER_SIZE];
+    source.seek(0);
+    int n;
+    while ((n = source.read(buffer, 0, buffer.length)) > 0) {
+      outputStream.write(buffer, 0, n);
+    }
   }
 
   private void sanitizeDocumentOutline(PDDocumentOutline documentOutline) {
@@ -72,12 +108,12 @@ class PdfBleachSession {
     recordJavascriptThreat("DocumentOutline Item Action", "Action");
   }
 
-  private void sanitizeNamed(PDDocument doc, PDDocumentNameDictionary names) {
+  private void sanitizeNamed(PDDocument doc, PDDocumentNameDictionary names) throws IOException {
     if (names == null) {
       return;
     }
 
-    new PDEmbeddedFileBleach(this, doc).sanitize(names.getEmbeddedFiles());
+    new PDEmbeddedFileBleach(this, doc, memoryBudget).sanitize(names.getEmbeddedFiles());
 
     if (names.getJavaScript() != null) {
       recordJavascriptThreat("Named JavaScriptAction", "Action");
@@ -85,39 +121,50 @@ class PdfBleachSession {
     }
   }
 
-  private PDDocument getDocument(RandomAccessRead source) throws IOException, BleachException {
-    PDDocument doc;
-    for (String pwd : COMMON_PASSWORDS) {
-      ScratchFile scratchFile = new ScratchFile(MEMORY_USAGE_SETTING);
-      doc = testPassword(scratchFile, source, pwd);
-      if (doc != null) {
-        LOGGER.debug("Password was guessed: '{}'", pwd);
-        doc.protect(new StandardProtectionPolicy(pwd, pwd, doc.getCurrentAccessPermission()));
-        return doc;
+  private PasswordGuessingParser parse(RandomAccessRead source)
+      throws IOException, BleachException {
+    String[] passwords = COMMON_PASSWORDS;
+    while (true) {
+      // The scratch file belongs to the document once parsed, and is closed with it
+      ScratchFile scratchFile = new ScratchFile(memoryUsageSetting);
+      try {
+        PasswordGuessingParser parser = new PasswordGuessingParser(source, passwords, scratchFile);
+        try {
+          parser.parse();
+          return parser;
+        } catch (InvalidPasswordException e) {
+          if (parser.getGuessedPassword() == null) {
+            throw e;
+          }
+          // PDFBox does more once the password is accepted: the file is parsed again with it
+          passwords = new String[]{parser.getGuessedPassword()};
+          source.seek(0);
+        }
+        scratchFile.close();
+      } catch (InvalidPasswordException e) {
+        scratchFile.close();
+        // @TODO: fetch password from config?
+        throw new BleachException("PDF is protected with an unknown password");
+      } catch (IOException | RuntimeException e) {
+        scratchFile.close();
+        throw e;
       }
-      scratchFile.close();
     }
+  }
 
-    // @TODO: fetch password from config?
-
-    throw new BleachException("PDF is protected with an unknown password");
+  private static PDDocument getDocument(PasswordGuessingParser parser) throws IOException {
+    PDDocument doc = parser.getPDDocument();
+    String pwd = parser.getPassword();
+    LOGGER.debug("Password was guessed: '{}'", pwd);
+    doc.protect(new StandardProtectionPolicy(pwd, pwd, doc.getCurrentAccessPermission()));
+    return doc;
   }
 
-  @SuppressFBWarnings(
-      value = "EXS_EXCEPTION_SOFTENING_RETURN_FALSE",
-      justification = "This method is an helper to check the password")
-  private PDDocument testPassword(ScratchFile inFile, RandomAccessRead source, String password)
-      throws IOException {
-    PDFParser parser = new PDFParser(source, password, inFile);
-    try {
-      parser.parse();
-      return parser.getPDDocument();
-    } catch (InvalidPasswordException e) {
-      LOGGER.error("The tested password is invalid");
-      return null;
-    } finally {
-      source.rewind((int) source.getPosition());
-    }
+  /**
+   * Marks the document as changed, so it is saved again.
+   */
+  void markModified() {
+    modified = true;
   }
 
   void recordJavascriptThreat(String location, String details) {
@@ -130,6 +177,7 @@ class PdfBleachSession {
         .build();
 
     session.recordThreat(threat);
+    markModified();
   }
 
   BleachSession getSession() {
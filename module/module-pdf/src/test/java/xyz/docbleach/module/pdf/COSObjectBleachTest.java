@@ -0,0 +1,109 @@
+package xyz.docbleach.module.pdf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSDocument;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSObjectKey;
+import org.apache.pdfbox.cos.COSString;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import xyz.docbleach.api.BleachSession;
+
+class COSObjectBleachTest {
+
+  private BleachSession session;
+  private COSObjectBleach instance;
+  private COSDocument document;
+
+  @BeforeEach
+  void setUp() {
+    session = new BleachSession(new PdfBleach());
+    instance = new COSObjectBleach(new PdfBleachSession(session));
+    document = new COSDocument();
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    document.close();
+  }
+
+  @Test
+  void deeplyNestedObjectsAreCrawled() {
+    COSDictionary action = javascriptAction();
+    COSArray array = new COSArray();
+    array.add(action);
+    for (int i = 0; i < 100_000; i++) {
+      COSArray parent = new COSArray();
+      parent.add(array);
+      array = parent;
+    }
+
+    instance.sanitizeObjects(documentWithRoot(array));
+    assertFalse(action.containsKey(COSName.JS));
+    assertEquals(2, session.threatCount());
+  }
+
+  @Test
+  void cyclesAndSharedObjectsAreCrawledOnce() throws IOException {
+    COSDictionary action = javascriptAction();
+    COSArray array = new COSArray();
+    array.add(action);
+    array.add(indirect(1, action));
+    COSDictionary root = new COSDictionary();
+    root.setItem(COSName.KIDS, array);
+    // Both the direct and the indirect parent link lead back to the root
+    action.setItem(COSName.PARENT, root);
+    action.setItem(COSName.P, indirect(2, root));
+
+    instance.sanitizeObjects(documentWithRoot(root));
+    assertEquals(2, session.threatCount());
+  }
+
+  @Test
+  void largeDocumentsAreCrawledConcurrently() throws IOException {
+    int count = COSObjectBleach.PARALLEL_THRESHOLD * 2;
+    COSArray kids = new COSArray();
+    for (int i = 1; i <= count; i++) {
+      kids.add(indirect(i, javascriptAction()));
+    }
+
+    instance.sanitizeObjects(documentWithRoot(kids));
+    assertEquals(count * 2, session.threatCount());
+  }
+
+  @Test
+  void detachedObjectsAreIgnored() throws IOException {
+    indirect(1, javascriptAction());
+
+    instance.sanitizeObjects(documentWithRoot(new COSDictionary()));
+    assertEquals(0, session.threatCount());
+  }
+
+  private COSDocument documentWithRoot(COSBase root) {
+    COSDictionary trailer = new COSDictionary();
+    trailer.setItem(COSName.ROOT, root);
+    document.setTrailer(trailer);
+    return document;
+  }
+
+  private COSObject indirect(long number, COSBase value) throws IOException {
+    COSObject object = document.getObjectFromPool(new COSObjectKey(number, 0));
+    object.setObject(value);
+    return object;
+  }
+
+  private static COSDictionary javascriptAction() {
+    COSDictionary action = new COSDictionary();
+    action.setItem(COSName.S, COSName.JAVA_SCRIPT);
+    action.setItem(COSName.JS, new COSString("app.alert(1)"));
+    return action;
+  }
+}
@@ -1,13 +1,50 @@
 package xyz.docbleach.module.pdf;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentNameDictionary;
+import org.apache.pdfbox.pdmodel.PDEmbeddedFilesNameTreeNode;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.filespecification.PDComplexFileSpecification;
+import org.apache.pdfbox.pdmodel.common.filespecification.PDEmbeddedFile;
+import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
+import org.apache.pdfbox.pdmodel.encryption.PDEncryption;
+import org.apache.pdfbox.pdmodel.encryption.StandardDecryptionMaterial;
+import org.apache.pdfbox.pdmodel.encryption.StandardSecurityHandler;
+import org.apache.pdfbox.pdmodel.encryption.StandardProtectionPolicy;
+import org.apache.pdfbox.pdmodel.interactive.action.PDActionJavaScript;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationLink;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import xyz.docbleach.api.BleachSession;
+import xyz.docbleach.api.exception.BleachException;
+import xyz.docbleach.api.threat.ThreatType;
+import xyz.docbleach.api.util.FileBackedInputStream;
 
 class PdfBleachTest {
 
@@ -32,4 +69,330 @@ class PdfBleachTest {
     invalidInputStream = new ByteArrayInputStream("Anything".getBytes(charset));
     assertFalse(instance.handlesMagic(invalidInputStream));
   }
+
+  @Test
+  void guessesCommonPasswords() throws IOException, BleachException {
+    BleachSession session = new BleachSession(instance);
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    instance.sanitize(encryptedPdf("infected"), os, session);
+    assertEquals(1, session.threatCount());
+
+    try (PDDocument doc = PDDocument.load(os.toByteArray(), "infected")) {
+      assertEquals(1, doc.getNumberOfPages());
+    }
+  }
+
+  @Test
+  void guessesPasswordsOfRepairedFiles() throws IOException, BleachException {
+    BleachSession session = new BleachSession(instance);
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    instance.sanitize(new ByteArrayInputStream(repairedPdf("infected")), os, session);
+    assertEquals(0, session.threatCount());
+
+    try (PDDocument doc = PDDocument.load(os.toByteArray(), "infected")) {
+      assertEquals(1, doc.getNumberOfPages());
+    }
+  }
+
+  @Test
+  void rejectsUnknownPasswords() throws IOException {
+    BleachSession session = new BleachSession(instance);
+    InputStream is = encryptedPdf("not a common password");
+    assertThrows(BleachException.class,
+        () -> instance.sanitize(is, new ByteArrayOutputStream(), session));
+  }
+
+  @Test
+  void cleanFilesAreKeptAsIs() throws IOException, BleachException {
+    byte[] original;
+    try (PDDocument doc = new PDDocument()) {
+      doc.addPage(new PDPage());
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      doc.save(os);
+      original = os.toByteArray();
+    }
+
+    BleachSession session = new BleachSession(instance);
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    instance.sanitize(new ByteArrayInputStream(original), os, session);
+    assertEquals(0, session.threatCount());
+    assertArrayEquals(original, os.toByteArray());
+  }
+
+  @Test
+  void dataAfterTheEndIsRemoved() throws IOException, BleachException {
+    ByteArrayOutputStream original = new ByteArrayOutputStream();
+    try (PDDocument doc = new PDDocument()) {
+      doc.addPage(new PDPage());
+      doc.save(original);
+    }
+    original.write("<script>alert(1)</script>".getBytes(StandardCharsets.US_ASCII));
+
+    BleachSession session = new BleachSession(instance);
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    instance.sanitize(new ByteArrayInputStream(original.toByteArray()), os, session);
+    assertEquals(0, session.threatCount());
+    assertFalse(new String(os.toByteArray(), StandardCharsets.US_ASCII).contains("<script>"));
+
+    try (PDDocument doc = PDDocument.load(os.toByteArray())) {
+      assertEquals(1, doc.getNumberOfPages());
+    }
+  }
+
+  @Test
+  void dataBeforeTheCrossReferenceTableIsRemoved() throws IOException, BleachException {
+    String original;
+    try (PDDocument doc = new PDDocument()) {
+      doc.addPage(new PDPage());
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      doc.save(os);
+      original = new String(os.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+    // The payload is inserted before the table, whose offset is moved accordingly
+    String payload = "%PAYLOAD<script>alert(1)</script>MZ..\n";
+    int xref = original.lastIndexOf("xref\n", original.lastIndexOf("startxref"));
+    int startxref = original.lastIndexOf("startxref\n") + "startxref\n".length();
+    int end = original.indexOf('\n', startxref);
+    String infected = original.substring(0, xref) + payload
+        + original.substring(xref, startxref) + (xref + payload.length())
+        + original.substring(end);
+
+    BleachSession session = new BleachSession(instance);
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    instance.sanitize(new ByteArrayInputStream(infected.getBytes(StandardCharsets.ISO_8859_1)),
+        os, session);
+    assertEquals(0, session.threatCount());
+    assertFalse(new String(os.toByteArray(), StandardCharsets.ISO_8859_1).contains("PAYLOAD"));
+
+    try (PDDocument doc = PDDocument.load(os.toByteArray())) {
+      assertEquals(1, doc.getNumberOfPages());
+    }
+  }
+
+  @Test
+  void sanitizesFilesUsingTemporaryFilesOnly() throws IOException, BleachException {
+    File file = File.createTempFile("docbleach", ".pdf");
+    try {
+      try (InputStream is = encryptedPdf("")) {
+        Files.copy(is, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+
+      PdfBleach bleach = new PdfBleach(0, file.getParentFile());
+      BleachSession session = new BleachSession(bleach);
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      try (InputStream is = new FileBackedInputStream(file)) {
+        bleach.sanitize(is, os, session);
+      }
+      assertEquals(1, session.threatCount());
+      assertTrue(os.size() > 0);
+    } finally {
+      Files.delete(file.toPath());
+    }
+  }
+
+  @Test
+  void sanitizesEveryPage() throws IOException, BleachException {
+    int pages = PDDocumentCatalogBleach.PARALLEL_THRESHOLD * 2;
+    ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+    try (PDDocument doc = new PDDocument()) {
+      PDAnnotationLink shared = new PDAnnotationLink();
+      shared.setAction(new PDActionJavaScript("app.alert(1)"));
+      for (int i = 0; i < pages; i++) {
+        PDPage page = new PDPage();
+        if (i % 2 == 0) {
+          page.getAnnotations().add(shared);
+        } else {
+          page.getActions().setO(new PDActionJavaScript("app.alert(2)"));
+        }
+        doc.addPage(page);
+      }
+      doc.save(pdf);
+    }
+
+    BleachSession session = new BleachSession(instance);
+    instance.sanitize(new ByteArrayInputStream(pdf.toByteArray()), new ByteArrayOutputStream(),
+        session);
+    // The shared link is only reported once
+    assertEquals(1 + pages / 2, session.threatCount());
+  }
+
+  @Test
+  void sanitizesEachEmbeddedFileOnce() throws IOException, BleachException {
+    byte[] clean = pdf(null);
+    ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+    try (PDDocument doc = new PDDocument()) {
+      doc.addPage(new PDPage());
+      PDEmbeddedFile infected = new PDEmbeddedFile(doc, new ByteArrayInputStream(pdf("1")));
+      Map<String, PDComplexFileSpecification> files = new HashMap<>();
+      files.put("infected.pdf", fileSpec(infected, infected));
+      files.put("copy.pdf", fileSpec(infected, null));
+      files.put("clean.pdf",
+          fileSpec(new PDEmbeddedFile(doc, new ByteArrayInputStream(clean)), null));
+
+      PDEmbeddedFilesNameTreeNode tree = new PDEmbeddedFilesNameTreeNode();
+      tree.setNames(files);
+      PDDocumentNameDictionary names = new PDDocumentNameDictionary(doc.getDocumentCatalog());
+      names.setEmbeddedFiles(tree);
+      doc.getDocumentCatalog().setNames(names);
+      doc.save(pdf);
+    }
+
+    BleachSession session = new BleachSession(instance);
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    instance.sanitize(new ByteArrayInputStream(pdf.toByteArray()), os, session);
+    assertEquals(1, session.threatCount());
+
+    try (PDDocument doc = PDDocument.load(os.toByteArray())) {
+      Map<String, PDComplexFileSpecification> files =
+          doc.getDocumentCatalog().getNames().getEmbeddedFiles().getNames();
+      PDComplexFileSpecification infected = files.get("infected.pdf");
+      assertSame(infected.getEmbeddedFile().getCOSObject(),
+          infected.getEmbeddedFileUnicode().getCOSObject());
+      assertSame(infected.getEmbeddedFile().getCOSObject(),
+          files.get("copy.pdf").getEmbeddedFile().getCOSObject());
+      try (PDDocument nested = PDDocument.load(infected.getEmbeddedFile().toByteArray())) {
+        assertNull(nested.getDocumentCatalog().getOpenAction());
+      }
+      assertArrayEquals(clean, files.get("clean.pdf").getEmbeddedFile().toByteArray());
+    }
+  }
+
+  @Test
+  void unknownEmbeddedFilesAreRemoved() throws IOException, BleachException {
+    byte[] page = "<html><script>alert(1)</script></html>".getBytes(StandardCharsets.US_ASCII);
+    ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+    try (PDDocument doc = new PDDocument()) {
+      doc.addPage(new PDPage());
+      PDEmbeddedFile html = new PDEmbeddedFile(doc, new ByteArrayInputStream(page));
+      PDEmbeddedFilesNameTreeNode tree = new PDEmbeddedFilesNameTreeNode();
+      tree.setNames(Collections.singletonMap("page.html", fileSpec(html, null)));
+      PDDocumentNameDictionary names = new PDDocumentNameDictionary(doc.getDocumentCatalog());
+      names.setEmbeddedFiles(tree);
+      doc.getDocumentCatalog().setNames(names);
+      doc.save(pdf);
+    }
+
+    BleachSession session = new BleachSession(instance);
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    session.sanitize(new ByteArrayInputStream(pdf.toByteArray()), os);
+    assertEquals(1, session.threatCount());
+    assertEquals(ThreatType.UNRECOGNIZED_CONTENT, session.getThreats().iterator().next().type());
+
+    try (PDDocument doc = PDDocument.load(os.toByteArray())) {
+      PDComplexFileSpecification html =
+          doc.getDocumentCatalog().getNames().getEmbeddedFiles().getNames().get("page.html");
+      assertEquals(0, html.getEmbeddedFile().toByteArray().length);
+    }
+  }
+
+  private static PDComplexFileSpecification fileSpec(PDEmbeddedFile file,
+      PDEmbeddedFile unicode) {
+    PDComplexFileSpecification fileSpec = new PDComplexFileSpecification();
+    fileSpec.setEmbeddedFile(file);
+    fileSpec.setEmbeddedFileUnicode(unicode);
+    return fileSpec;
+  }
+
+  /**
+   * @param alert the message of the document's JavaScript OpenAction, null for a clean document
+   */
+  private static byte[] pdf(String alert) throws IOException {
+    try (PDDocument doc = new PDDocument()) {
+      doc.addPage(new PDPage());
+      if (alert != null) {
+        doc.getDocumentCatalog().setOpenAction(new PDActionJavaScript("app.alert(" + alert + ")"));
+      }
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      doc.save(os);
+      return os.toByteArray();
+    }
+  }
+
+  private static InputStream encryptedPdf(String password) throws IOException {
+    try (PDDocument doc = new PDDocument()) {
+      doc.addPage(new PDPage());
+      doc.getDocumentCatalog().setOpenAction(new PDActionJavaScript("app.alert(1)"));
+      doc.protect(new StandardProtectionPolicy("owner", password, new AccessPermission()));
+
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      doc.save(os);
+      return new ByteArrayInputStream(os.toByteArray());
+    }
+  }
+
+  /**
+   * An encrypted file keeping its catalog in an object stream, and whose cross-reference stream
+   * has a wrong offset: once the password is known, PDFBox searches the file for the objects and
+   * the object streams.
+   */
+  private static byte[] repairedPdf(String password) throws IOException {
+    PDEncryption encryption;
+    COSArray id;
+    try (PDDocument doc = new PDDocument()) {
+      doc.addPage(new PDPage());
+      doc.protect(new StandardProtectionPolicy("owner", password, new AccessPermission()));
+      doc.save(new ByteArrayOutputStream());
+      encryption = doc.getEncryption();
+      id = doc.getDocument().getDocumentID();
+    }
+
+    String objects = "<</Type /Catalog /Pages 3 0 R>>\n<</Type /Pages /Kids [4 0 R] /Count 1>>";
+    String header = "2 0 3 " + (objects.indexOf('\n') + 1) + "\n";
+    byte[] objectStream;
+    StandardSecurityHandler handler = new StandardSecurityHandler();
+    handler.prepareForDecryption(encryption, id, new StandardDecryptionMaterial(password));
+    try (COSStream stream = new COSStream()) {
+      try (OutputStream os = stream.createRawOutputStream()) {
+        os.write((header + objects).getBytes(StandardCharsets.US_ASCII));
+      }
+      handler.encryptStream(stream, 1, 0);
+      try (InputStream is = stream.createRawInputStream()) {
+        objectStream = IOUtils.toByteArray(is);
+      }
+    }
+
+    ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+    long[] offsets = new long[7];
+    write(pdf, "%PDF-1.5\n");
+    offsets[1] = pdf.size();
+    write(pdf, "1 0 obj\n<</Type /ObjStm /N 2 /First " + header.length() + " /Length "
+        + objectStream.length + ">>\nstream\n");
+    pdf.write(objectStream);
+    write(pdf, "\nendstream\nendobj\n");
+    // Wrong offset, in the middle of the object
+    offsets[4] = pdf.size() + 20;
+    write(pdf, "4 0 obj\n<</Type /Page /Parent 3 0 R /MediaBox [0 0 612 792]>>\nendobj\n");
+    offsets[5] = pdf.size();
+    write(pdf, "5 0 obj\n<</Filter /Standard /V " + encryption.getVersion() + " /R "
+        + encryption.getRevision() + " /Length " + encryption.getLength() + " /P "
+        + encryption.getPermissions() + " /O " + hex(encryption.getOwnerKey()) + " /U "
+        + hex(encryption.getUserKey()) + ">>\nendobj\n");
+    offsets[6] = pdf.size();
+
+    // Type, offset or object stream, generation or index
+    ByteBuffer xref = ByteBuffer.allocate(7 * 7);
+    xref.put((byte) 0).putInt(0).putShort((short) 0xFFFF);
+    xref.put((byte) 1).putInt((int) offsets[1]).putShort((short) 0);
+    xref.put((byte) 2).putInt(1).putShort((short) 0);
+    xref.put((byte) 2).putInt(1).putShort((short) 1);
+    for (int i = 4; i < 7; i++) {
+      xref.put((byte) 1).putInt((int) offsets[i]).putShort((short) 0);
+    }
+    write(pdf, "6 0 obj\n<</Type /XRef /Size 7 /W [1 4 2] /Root 2 0 R /Encrypt 5 0 R /ID ["
+        + hex(((COSString) id.getObject(0)).getBytes()) + " "
+        + hex(((COSString) id.getObject(1)).getBytes()) + "] /Length " + xref.capacity()
+        + ">>\nstream\n");
+    pdf.write(xref.array());
+    write(pdf, "\nendstream\nendobj\nstartxref\n" + offsets[6] + "\n%%EOF\n");
+    return pdf.toByteArray();
+  }
+
+  private static void write(ByteArrayOutputStream os, String text) throws IOException {
+    os.write(text.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  private static String hex(byte[] bytes) {
+    return "<" + new COSString(bytes).toHexString() + ">";
+  }
 }
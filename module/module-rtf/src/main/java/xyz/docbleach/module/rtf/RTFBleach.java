@@ -1,13 +1,8 @@
 package xyz.docbleach.module.rtf;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.nio.charset.Charset;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import xyz.docbleach.api.BleachSession;
@@ -30,6 +25,9 @@ import xyz.docbleach.api.util.StreamUtils;
  * macro, but unreadable) that may be an executable, an image, ... To sanitize the RTF, we just
  * replace every instance of "\obj" with "\0bj" (a zero instead of the letter o). An RTF parser will
  * skip that tag (unknown), and the exploit will likely fail.
+ *
+ * <p>The document is rewritten byte per byte by a {@link RTFObjectRewriter}, so large documents
+ * are streamed using a fixed amount of memory.
  */
 public class RTFBleach implements Bleach {
 
@@ -41,6 +39,11 @@ public class RTFBleach implements Bleach {
     return StreamUtils.hasHeader(stream, RTF_MAGIC);
   }
 
+  @Override
+  public byte[][] getMagicSignatures() {
+    return new byte[][]{RTF_MAGIC};
+  }
+
   @Override
   public String getName() {
     return "RTF Bleach";
@@ -51,35 +54,24 @@ public class RTFBleach implements Bleach {
       throws BleachException {
     LOGGER.debug("This is a RTF file, I'll rename object to 0bject, and hope for it to be enough.");
 
-    Charset cs = Charset.isSupported("UTF-8") ? Charset.forName("UTF-8") : Charset.defaultCharset();
+    RTFObjectRewriter rewriter = new RTFObjectRewriter(outFile, offset -> {
+      LOGGER.debug("OLE Object found and removed!");
 
-    try (BufferedReader inStream = new BufferedReader(new InputStreamReader(inputStream, cs));
-        BufferedWriter outStream = new BufferedWriter(new OutputStreamWriter(outFile, cs));) {
-      String l;
-      while ((l = inStream.readLine()) != null) {
-        if (l.toLowerCase().contains("\\obj")) {
-          LOGGER.debug("OLE Object found and removed!");
+      Threat threat = Threat.builder()
+          .type(ThreatType.BINARY_CONTENT)
+          .severity(ThreatSeverity.HIGH)
+          .action(ThreatAction.REMOVE)
+          .location("Offset " + offset)
+          .details("Embedded OLE Object")
+          .build();
 
-          Threat threat = Threat.builder()
-              .type(ThreatType.BINARY_CONTENT)
-              .severity(ThreatSeverity.HIGH)
-              .action(ThreatAction.REMOVE)
-              .location("?")
-              .details("Embedded OLE Object")
-              .build();
+      session.recordThreat(threat);
+    });
 
-          session.recordThreat(threat);
-        }
-        String sanitizedLine = sanitizeLine(l);
-        outStream.write(sanitizedLine);
-      }
+    try (InputStream inStream = inputStream; OutputStream outStream = outFile) {
+      rewriter.rewrite(inStream);
     } catch (IOException e) {
       throw new BleachException(e);
     }
   }
-
-  private String sanitizeLine(String l) {
-    // "\*" tells the parser to "ignore tags it doesn't know about".
-    return l.replace("\\obj", "\\*\\0bj").replace("\\*\\*", "\\*");
-  }
 }
@@ -0,0 +1,329 @@
+package xyz.docbleach.module.rtf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Byte-level RTF tokenizer, rewriting the <code>\obj*</code> control words while it streams the
+ * document. RTF is 7-bit ASCII, so no charset decoding is needed: everything that is not an object
+ * control word is copied untouched, line endings included.
+ *
+ * <p>The data of <code>\binN</code> is not parsed, but a reader ignoring its length would find
+ * the control words written in it: each <code>\obj</code> sequence starting in binary data has its
+ * "o" replaced by a "0", which keeps the data's length.
+ *
+ * <p>Only a fixed amount of memory is used, whatever the size of the document: one read buffer,
+ * one write buffer, and the current control word (at most 32 letters, per the specification).
+ */
+class RTFObjectRewriter {
+
+  private static final int BUFFER_SIZE = 8 * 1024;
+  private static final int MAX_WORD_LENGTH = 32;
+
+  private static final int TEXT = 0;
+  private static final int BACKSLASH = 1;
+  private static final int WORD = 2;
+  private static final int PARAMETER = 3;
+  private static final int BINARY = 4;
+  private static final byte[] OBJECT = {'\\', 'o', 'b', 'j'};
+
+  private final OutputStream out;
+  private final Listener listener;
+  private final byte[] inBuffer = new byte[BUFFER_SIZE];
+  private final byte[] outBuffer = new byte[BUFFER_SIZE];
+  private final byte[] word = new byte[MAX_WORD_LENGTH];
+  private int outCount = 0;
+
+  private int state = TEXT;
+  private int wordLength;
+  private long wordOffset;
+  private boolean wordIsBinary;
+  private long parameter;
+  private boolean parameterStarted;
+  private boolean parameterNegative;
+  private long binaryRemaining;
+  /**
+   * Start of a "\obj" sequence found in binary data, held until it is complete: it may end after
+   * the data
+   */
+  private final byte[] held = new byte[OBJECT.length];
+  private final boolean[] heldBinary = new boolean[OBJECT.length];
+  private int heldCount = 0;
+  private long heldOffset;
+  /**
+   * True if the last token written was the "\*" control symbol
+   */
+  private boolean afterIgnorableMarker = false;
+  private int groupDepth = 0;
+  /**
+   * Depth of the object group being rewritten, -1 when outside of an object
+   */
+  private int objectDepth = -1;
+
+  /**
+   * @param out the stream to write the sanitized document to
+   * @param listener notified once per object group, and once per "\obj" sequence in binary data
+   */
+  RTFObjectRewriter(OutputStream out, Listener listener) {
+    this.out = out;
+    this.listener = listener;
+  }
+
+  /**
+   * Rewrites the whole document, and flushes the output.
+   *
+   * @param in the RTF document
+   * @throws IOException if the document could not be read or written
+   */
+  void rewrite(InputStream in) throws IOException {
+    long offset = 0;
+    int len;
+    while ((len = in.read(inBuffer)) != -1) {
+      for (int i = 0; i < len; i++) {
+        process(inBuffer[i], offset + i);
+      }
+      offset += len;
+    }
+
+    // A control word may end the document
+    if (heldCount > 0) {
+      release();
+    }
+    if (state == WORD) {
+      endWord();
+    } else if (state == BACKSLASH) {
+      write((byte) '\\');
+    }
+    flush();
+  }
+
+  private void process(byte b, long offset) throws IOException {
+    if (state == BINARY || heldCount > 0) {
+      boolean binary = state == BINARY;
+      if (binary && --binaryRemaining == 0) {
+        state = TEXT;
+      }
+      hold(b, binary, offset);
+      return;
+    }
+    tokenize(b, offset);
+  }
+
+  private void tokenize(byte b, long offset) throws IOException {
+    switch (state) {
+      case BACKSLASH:
+        if (isLetter(b)) {
+          state = WORD;
+          word[0] = b;
+          wordLength = 1;
+          return;
+        }
+        // Control symbol, such as \\, \{, \} or \*: never starts a group
+        state = TEXT;
+        write((byte) '\\');
+        write(b);
+        afterIgnorableMarker = b == '*';
+        return;
+      case WORD:
+        if (isLetter(b) && wordLength < MAX_WORD_LENGTH) {
+          word[wordLength++] = b;
+          return;
+        }
+        endWord();
+        if (b == '-' || isDigit(b)) {
+          state = PARAMETER;
+          parameter = 0;
+          parameterNegative = b == '-';
+          processParameter(b);
+          return;
+        }
+        endControlWord(b, offset);
+        return;
+      case PARAMETER:
+        if (isDigit(b)) {
+          processParameter(b);
+          return;
+        }
+        endControlWord(b, offset);
+        return;
+      default:
+        processText(b, offset);
+    }
+  }
+
+  /**
+   * Copies binary data, holding back the bytes that may start a "\obj" sequence.
+   *
+   * @param binary false if the byte follows the binary data, and is only looked at to complete a
+   * sequence that was started
+   */
+  private void hold(byte b, boolean binary, long offset) throws IOException {
+    if (heldCount == 0) {
+      if (b != '\\') {
+        write(b);
+        return;
+      }
+      heldOffset = offset;
+    } else if (b != OBJECT[heldCount]) {
+      release();
+      if (binary) {
+        hold(b, true, offset);
+      } else {
+        tokenize(b, offset);
+      }
+      return;
+    }
+
+    held[heldCount] = b;
+    heldBinary[heldCount] = binary;
+    heldCount++;
+    if (heldCount == OBJECT.length) {
+      listener.objectFound(heldOffset);
+      held[1] = '0';
+      release();
+    }
+  }
+
+  /**
+   * Writes the held bytes: those that followed the binary data are parsed as usual.
+   */
+  private void release() throws IOException {
+    int count = heldCount;
+    heldCount = 0;
+    for (int i = 0; i < count; i++) {
+      if (heldBinary[i]) {
+        write(held[i]);
+      } else {
+        tokenize(held[i], heldOffset + i);
+      }
+    }
+  }
+
+  private void processText(byte b, long offset) throws IOException {
+    if (b == '\\') {
+      // Keeps afterIgnorableMarker, in case this is the control word following "\*"
+      state = BACKSLASH;
+      wordOffset = offset;
+      return;
+    }
+
+    afterIgnorableMarker = false;
+    switch (b) {
+      case '{':
+        groupDepth++;
+        break;
+      case '}':
+        if (groupDepth == objectDepth) {
+          objectDepth = -1;
+        }
+        groupDepth--;
+        break;
+      default:
+        break;
+    }
+    write(b);
+  }
+
+  private void processParameter(byte b) throws IOException {
+    write(b);
+    if (isDigit(b)) {
+      parameterStarted = true;
+      // RTF parameters are 16 or 32 bits long, larger values are not meaningful
+      parameter = Math.min(Integer.MAX_VALUE, parameter * 10 + (b - '0'));
+    }
+  }
+
+  /**
+   * Handles the delimiter ending a control word: a space belongs to the control word, anything else
+   * is processed as text, or is the first byte of the data following <code>\binN</code>.
+   */
+  private void endControlWord(byte delimiter, long offset) throws IOException {
+    boolean binary = wordIsBinary && parameterStarted && !parameterNegative && parameter > 0;
+    state = TEXT;
+
+    if (binary) {
+      // Raw bytes, that must not be interpreted
+      state = BINARY;
+      binaryRemaining = parameter;
+    }
+    if (delimiter == ' ') {
+      write(delimiter);
+    } else {
+      process(delimiter, offset);
+    }
+  }
+
+  /**
+   * Writes the control word that was buffered, rewriting it if it is an object.
+   */
+  private void endWord() throws IOException {
+    wordIsBinary = wordLength == 3 && word[0] == 'b' && word[1] == 'i' && word[2] == 'n';
+    parameterStarted = false;
+
+    if (wordLength < 3 || word[0] != 'o' || word[1] != 'b' || word[2] != 'j') {
+      write((byte) '\\');
+      write(word, 0, wordLength);
+      afterIgnorableMarker = false;
+      return;
+    }
+
+    if (objectDepth == -1) {
+      objectDepth = groupDepth;
+      listener.objectFound(wordOffset);
+    }
+
+    // "\*" tells the parser to "ignore tags it doesn't know about".
+    if (!afterIgnorableMarker) {
+      write((byte) '\\');
+      write((byte) '*');
+    }
+    write((byte) '\\');
+    write((byte) '0');
+    write(word, 1, wordLength - 1);
+    afterIgnorableMarker = false;
+  }
+
+  private void write(byte b) throws IOException {
+    if (outCount == outBuffer.length) {
+      flushBuffer();
+    }
+    outBuffer[outCount++] = b;
+  }
+
+  private void write(byte[] b, int off, int len) throws IOException {
+    for (int i = off; i < off + len; i++) {
+      write(b[i]);
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    out.write(outBuffer, 0, outCount);
+    outCount = 0;
+  }
+
+  private void flush() throws IOException {
+    flushBuffer();
+    out.flush();
+  }
+
+  private static boolean isLetter(byte b) {
+    return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+  }
+
+  private static boolean isDigit(byte b) {
+    return b >= '0' && b <= '9';
+  }
+
+  /**
+   * Notified when an object is found.
+   */
+  interface Listener {
+
+    /**
+     * @param offset position of the object's first control word, in bytes from the start of the
+     * document
+     */
+    void objectFound(long offset);
+  }
+}
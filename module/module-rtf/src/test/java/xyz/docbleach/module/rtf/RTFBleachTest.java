@@ -0,0 +1,107 @@
+package xyz.docbleach.module.rtf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import xyz.docbleach.api.BleachSession;
+import xyz.docbleach.api.exception.BleachException;
+import xyz.docbleach.api.threat.Threat;
+
+class RTFBleachTest {
+
+  private RTFBleach instance;
+  private BleachSession session;
+
+  @BeforeEach
+  void setUp() {
+    instance = new RTFBleach();
+    session = new BleachSession(instance);
+  }
+
+  @Test
+  void documentWithoutObjectIsUntouched() throws BleachException {
+    String rtf = "{\\rtf1\\ansi\\deff0\r\n{\\fonttbl{\\f0 Arial;}}\r\n"
+        + "\\pard Hello \\{obj\\} \\\\object \\'e9\\par\n}";
+
+    assertEquals(rtf, sanitize(rtf));
+    assertEquals(0, session.threatCount());
+  }
+
+  @Test
+  void objectsAreRenamed() throws BleachException {
+    String rtf = "{\\rtf1 a\r\n{\\object\\objemb{\\*\\objclass Word}\\objw10{\\*\\objdata 0102}}\r\n"
+        + "{\\object\\objlink}}";
+
+    assertEquals("{\\rtf1 a\r\n{\\*\\0bject\\*\\0bjemb{\\*\\0bjclass Word}\\*\\0bjw10"
+            + "{\\*\\0bjdata 0102}}\r\n{\\*\\0bject\\*\\0bjlink}}",
+        sanitize(rtf));
+
+    // One threat per object group
+    List<String> locations = new ArrayList<>();
+    for (Threat threat : session.getThreats()) {
+      locations.add(threat.location());
+    }
+    assertEquals(2, locations.size());
+    assertEquals("Offset 11", locations.get(0));
+    assertEquals("Offset " + rtf.lastIndexOf("\\object"), locations.get(1));
+  }
+
+  @Test
+  void binaryDataKeepsItsLength() throws BleachException {
+    String rtf = "{\\rtf1 {\\bin7 \\object}\\object}";
+
+    assertEquals("{\\rtf1 {\\bin7 \\0bject}\\*\\0bject}", sanitize(rtf));
+    assertEquals(2, session.threatCount());
+  }
+
+  @Test
+  void binaryDataStartsWithTheDelimiter() throws BleachException {
+    assertEquals("{\\rtf1\\bin3abc\\*\\0bject}", sanitize("{\\rtf1\\bin3abc\\object}"));
+    assertEquals(1, session.threatCount());
+  }
+
+  @Test
+  void objectStartingInBinaryDataIsRenamed() throws BleachException {
+    String rtf = "{\\rtf1\\bin2a\\object\\objemb}";
+
+    assertEquals("{\\rtf1\\bin2a\\0bject\\*\\0bjemb}", sanitize(rtf));
+    assertEquals(2, session.threatCount());
+  }
+
+  @Test
+  void groupDelimiterIsBinaryData() throws BleachException {
+    String rtf = "{\\rtf1{\\bin1{\\object\\objemb{\\*\\objdata 0102}}}";
+
+    assertEquals("{\\rtf1{\\bin1{\\*\\0bject\\*\\0bjemb{\\*\\0bjdata 0102}}}",
+        sanitize(rtf));
+    assertEquals(1, session.threatCount());
+  }
+
+  @Test
+  void largeDocumentsAreStreamed() throws BleachException {
+    StringBuilder rtf = new StringBuilder("{\\rtf1\n");
+    StringBuilder expected = new StringBuilder("{\\rtf1\n");
+    for (int i = 0; i < 5_000; i++) {
+      rtf.append("{\\pard line ").append(i).append("{\\object}}\r\n");
+      expected.append("{\\pard line ").append(i).append("{\\*\\0bject}}\r\n");
+    }
+    rtf.append('}');
+    expected.append('}');
+
+    assertEquals(expected.toString(), sanitize(rtf.toString()));
+    assertEquals(5_000, session.threatCount());
+  }
+
+  private String sanitize(String rtf) throws BleachException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    instance.sanitize(
+        new ByteArrayInputStream(rtf.getBytes(StandardCharsets.US_ASCII)), os, session);
+    return new String(os.toByteArray(), StandardCharsets.US_ASCII);
+  }
+}
@@ -1,11 +1,13 @@
 package xyz.docbleach.module.zip;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -15,17 +17,58 @@ import xyz.docbleach.api.BleachSession;
 import xyz.docbleach.api.bleach.Bleach;
 import xyz.docbleach.api.exception.BleachException;
 import xyz.docbleach.api.exception.RecursionBleachException;
-import xyz.docbleach.api.util.CloseShieldInputStream;
+import xyz.docbleach.api.util.BleachExecutors;
+import xyz.docbleach.api.util.StageBuffer;
 import xyz.docbleach.api.util.StreamUtils;
 
+/**
+ * Sanitizes each file of a zip archive. Entries are sanitized one after the other, unless a
+ * concurrency greater than 1 is configured: they are then sanitized in parallel, and still written
+ * in their original order.
+ *
+ * <p>Entries of an unknown type are removed by the session. Archives starting with a {@value
+ * #CONTENT_TYPES} entry are Office Open XML packages, left to the Office bleach.
+ *
+ * <p>When created by the {@link xyz.docbleach.api.bleach.DefaultBleach}, the concurrency and the
+ * memory budget are read from the {@value #CONCURRENCY_PROPERTY} and {@value
+ * #MEMORY_BUDGET_PROPERTY} system properties.
+ */
 public class ArchiveBleach implements Bleach {
 
+  public static final String CONCURRENCY_PROPERTY = "docbleach.zip.concurrency";
+  public static final String MEMORY_BUDGET_PROPERTY = "docbleach.zip.memoryBudget";
+  /**
+   * Default amount of entry bytes being sanitized at the same time, per archive: 64MB
+   */
+  public static final long DEFAULT_MEMORY_BUDGET = 64 * 1024 * 1024;
+
   private static final Logger LOGGER = LoggerFactory.getLogger(ArchiveBleach.class);
   private static final byte[] ZIP_MAGIC = new byte[]{0x50, 0x4B, 0x03, 0x04};
+  private static final String CONTENT_TYPES = "[Content_Types].xml";
+
+  private final int concurrency;
+  private final long memoryBudget;
+
+  public ArchiveBleach() {
+    this(Integer.getInteger(CONCURRENCY_PROPERTY, 1),
+        Long.getLong(MEMORY_BUDGET_PROPERTY, DEFAULT_MEMORY_BUDGET));
+  }
+
+  /**
+   * @param concurrency maximum number of entries sanitized at the same time, per archive. 1 to
+   * sanitize entries sequentially
+   * @param memoryBudget once the entries being sanitized reach this size, we wait for the oldest
+   * one before reading the next one
+   */
+  public ArchiveBleach(int concurrency, long memoryBudget) {
+    this.concurrency = Math.max(1, concurrency);
+    this.memoryBudget = Math.max(0, memoryBudget);
+  }
 
   @Override
   public boolean handlesMagic(InputStream stream) {
-    return StreamUtils.hasHeader(stream, ZIP_MAGIC);
+    return StreamUtils.hasHeader(stream, ZIP_MAGIC)
+        && !StreamUtils.hasFirstZipEntry(stream, CONTENT_TYPES);
   }
 
   @Override
@@ -39,65 +82,152 @@ public class ArchiveBleach implements Bleach {
     ZipInputStream zipIn = new ZipInputStream(inputStream);
     ZipOutputStream zipOut = new ZipOutputStream(outputStream);
 
+    try {
+      // Nested archives are handled sequentially, a worker must not wait for other workers
+      if (concurrency > 1 && !BleachExecutors.isWorkerThread()) {
+        sanitizeConcurrently(session, zipIn, zipOut);
+      } else {
+        sanitizeSequentially(session, zipIn, zipOut);
+      }
+
+      zipOut.finish();
+    } catch (IOException e) {
+      LOGGER.error("Error in ArchiveBleach", e);
+    }
+  }
+
+  private void sanitizeSequentially(
+      BleachSession session, ZipInputStream zipIn, ZipOutputStream zipOut) throws IOException {
+    ZipEntry entry;
+    while ((entry = zipIn.getNextEntry()) != null) {
+      if (entry.isDirectory()) {
+        LOGGER.trace("Directory: {}", entry.getName());
+        zipOut.putNextEntry(new ZipEntry(entry));
+        zipOut.closeEntry();
+        continue;
+      }
+
+      LOGGER.trace("Entry: {}", entry.getName());
+      StageBuffer input = readEntry(zipIn);
+      try {
+        writeEntry(zipOut, entry, sanitizeEntry(session, input));
+      } finally {
+        input.release();
+      }
+    }
+  }
+
+  private void sanitizeConcurrently(
+      BleachSession session, ZipInputStream zipIn, ZipOutputStream zipOut) throws IOException {
+    Deque<PendingEntry> pending = new ArrayDeque<>();
+    long pendingBytes = 0;
+
     try {
       ZipEntry entry;
       while ((entry = zipIn.getNextEntry()) != null) {
         if (entry.isDirectory()) {
           LOGGER.trace("Directory: {}", entry.getName());
-          ZipEntry newEntry = new ZipEntry(entry);
-          zipOut.putNextEntry(newEntry);
+          pending.add(new PendingEntry(entry, null, null, null));
         } else {
           LOGGER.trace("Entry: {}", entry.getName());
-          sanitizeFile(session, zipIn, zipOut, entry);
+          StageBuffer input = readEntry(zipIn);
+          BleachSession child = session.fork();
+          Future<StageBuffer> result = BleachExecutors.submit(() -> sanitizeEntry(child, input));
+          pending.add(new PendingEntry(entry, input, child, result));
+          pendingBytes += input.size();
         }
 
-        zipOut.closeEntry();
+        while (!pending.isEmpty() && (pending.size() >= concurrency
+            || pendingBytes >= memoryBudget)) {
+          pendingBytes -= writePending(session, zipOut, pending.removeFirst());
+        }
       }
 
-      zipOut.finish();
-    } catch (IOException e) {
-      LOGGER.error("Error in ArchiveBleach", e);
+      while (!pending.isEmpty()) {
+        writePending(session, zipOut, pending.removeFirst());
+      }
+    } finally {
+      for (PendingEntry entry : pending) {
+        entry.discard();
+      }
     }
   }
 
-  private void sanitizeFile(
-      BleachSession session, ZipInputStream zipIn, ZipOutputStream zipOut, ZipEntry entry)
-      throws IOException, BleachException {
-    ByteArrayOutputStream streamBuilder = new ByteArrayOutputStream();
+  /**
+   * Waits for the oldest entry, and writes it to the archive.
+   *
+   * @return the size of the entry's content, now freed
+   */
+  private long writePending(BleachSession session, ZipOutputStream zipOut, PendingEntry pending)
+      throws IOException {
+    if (pending.input == null) {
+      zipOut.putNextEntry(new ZipEntry(pending.entry));
+      zipOut.closeEntry();
+      return 0;
+    }
+
+    try {
+      StageBuffer output = pending.result.get();
+      session.merge(pending.session);
+      writeEntry(zipOut, pending.entry, output);
+      return pending.input.size();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while sanitizing " + pending.entry.getName());
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } finally {
+      pending.input.release();
+    }
+  }
 
-    int bytesRead;
+  private StageBuffer readEntry(ZipInputStream zipIn) throws IOException {
     // @TODO: check real file size?
-    byte[] tempBuffer = new byte[1024];
-    while ((bytesRead = zipIn.read(tempBuffer)) != -1) {
-      streamBuilder.write(tempBuffer, 0, bytesRead);
+    StageBuffer input = new StageBuffer();
+    try {
+      StreamUtils.copy(zipIn, input);
+    } catch (IOException e) {
+      input.release();
+      throw e;
     }
-    ByteArrayInputStream bais = new ByteArrayInputStream(streamBuilder.toByteArray());
-    CloseShieldInputStream is = new CloseShieldInputStream(new BufferedInputStream(bais));
+    return input;
+  }
 
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
+  private StageBuffer sanitizeEntry(BleachSession session, StageBuffer input) throws IOException {
+    StageBuffer out = new StageBuffer();
 
     try {
-      session.sanitize(is, out);
+      session.sanitize(input.getInputStream(), out);
     } catch (RecursionBleachException e) {
       LOGGER.error("Zip Bomb?", e);
-      streamBuilder.writeTo(out);
       // Stream was untouched, o/
+      input.writeTo(out);
     } catch (BleachException e) {
       LOGGER.error("An error occured ", e);
-    } finally {
-      bais.close();
-      is._close();
-      streamBuilder.close();
+    } catch (IOException | RuntimeException e) {
+      out.release();
+      throw e;
     }
 
-    ZipEntry newEntry = cloneEntry(entry);
-    newEntry.setCompressedSize(-1);
-    newEntry.setSize(out.size());
-    newEntry.setComment(newEntry.getComment());
+    return out;
+  }
+
+  private void writeEntry(ZipOutputStream zipOut, ZipEntry entry, StageBuffer content)
+      throws IOException {
+    try {
+      ZipEntry newEntry = cloneEntry(entry);
+      newEntry.setCompressedSize(-1);
+      newEntry.setSize(content.size());
 
-    zipOut.putNextEntry(newEntry);
-    out.writeTo(zipOut);
-    out.close();
+      zipOut.putNextEntry(newEntry);
+      content.writeTo(zipOut);
+      zipOut.closeEntry();
+    } finally {
+      content.release();
+    }
   }
 
   // Copies everything except size & CRC-32
@@ -119,4 +249,42 @@ public class ArchiveBleach implements Bleach {
 
     return newEntry;
   }
+
+  /**
+   * An entry read from the archive, that may still be sanitized by a worker. Directories have no
+   * content.
+   */
+  private static class PendingEntry {
+
+    private final ZipEntry entry;
+    private final StageBuffer input;
+    private final BleachSession session;
+    private final Future<StageBuffer> result;
+
+    PendingEntry(ZipEntry entry, StageBuffer input, BleachSession session,
+        Future<StageBuffer> result) {
+      this.entry = entry;
+      this.input = input;
+      this.session = session;
+      this.result = result;
+    }
+
+    /**
+     * Frees the entry's buffers, waiting for its worker so the output is not leaked.
+     */
+    void discard() {
+      if (result == null) {
+        return;
+      }
+      try {
+        result.get().release();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        LOGGER.debug("Discarded entry {} failed", entry.getName(), e);
+      } finally {
+        input.release();
+      }
+    }
+  }
 }
@@ -0,0 +1,203 @@
+package xyz.docbleach.module.zip;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.Test;
+import xyz.docbleach.api.BleachSession;
+import xyz.docbleach.api.bleach.Bleach;
+import xyz.docbleach.api.bleach.CompositeBleach;
+import xyz.docbleach.api.exception.BleachException;
+import xyz.docbleach.api.util.StreamUtils;
+
+class ArchiveBleachTest {
+
+  private static final int ENTRIES = 50;
+  private static final byte[] EXECUTABLE = {'M', 'Z', (byte) 0x90, 0};
+
+  @Test
+  void sequentialModeKeepsEntries() throws IOException, BleachException {
+    byte[] archive = archive(nestedArchive());
+    assertArchive(sanitize(new ArchiveBleach(1, ArchiveBleach.DEFAULT_MEMORY_BUDGET), archive));
+  }
+
+  @Test
+  void concurrentModeKeepsEntriesInOrder() throws IOException, BleachException {
+    byte[] archive = archive(nestedArchive());
+    assertArchive(sanitize(new ArchiveBleach(4, ArchiveBleach.DEFAULT_MEMORY_BUDGET), archive));
+  }
+
+  @Test
+  void concurrentModeHonoursTheMemoryBudget() throws IOException, BleachException {
+    byte[] archive = archive(nestedArchive());
+    // Every entry exceeds the budget: they are sanitized one at a time
+    assertArchive(sanitize(new ArchiveBleach(4, 1), archive));
+  }
+
+  @Test
+  void unknownEntriesAreRemoved() throws IOException, BleachException {
+    byte[] archive = archive("readme.txt", content(0), "setup.exe", EXECUTABLE);
+    BleachSession session = session(new ArchiveBleach(1, ArchiveBleach.DEFAULT_MEMORY_BUDGET));
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    session.sanitize(new ByteArrayInputStream(archive), os);
+    assertEquals(1, session.threatCount());
+
+    try (ZipInputStream zipIn = new ZipInputStream(new ByteArrayInputStream(os.toByteArray()))) {
+      assertEquals("readme.txt", zipIn.getNextEntry().getName());
+      assertArrayEquals(content(0), read(zipIn));
+      assertEquals("setup.exe", zipIn.getNextEntry().getName());
+      assertEquals(0, read(zipIn).length);
+      assertNull(zipIn.getNextEntry());
+    }
+  }
+
+  @Test
+  void contentTypesEntryDoesNotKeepUnknownEntries() throws IOException, BleachException {
+    // Looks like an Office package, left to the Office bleach: without it, the file is removed
+    byte[] archive = archive("[Content_Types].xml", "<Types/>".getBytes(),
+        "word/embeddings/oleObject1.bin", EXECUTABLE);
+    BleachSession session = session(new ArchiveBleach(4, ArchiveBleach.DEFAULT_MEMORY_BUDGET));
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    session.sanitize(new ByteArrayInputStream(archive), os);
+
+    assertEquals(1, session.threatCount());
+    assertEquals(0, os.size());
+  }
+
+  private static byte[] sanitize(ArchiveBleach bleach, byte[] archive)
+      throws IOException, BleachException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    BleachSession session = session(bleach);
+    session.sanitize(new ByteArrayInputStream(archive), os);
+    assertEquals(0, session.threatCount());
+    return os.toByteArray();
+  }
+
+  /**
+   * The text entries are handled by a bleach copying them, other files are of an unknown type.
+   */
+  private static BleachSession session(ArchiveBleach bleach) {
+    return new BleachSession(new CompositeBleach(bleach, new TextBleach()));
+  }
+
+  private static void assertArchive(byte[] archive) throws IOException {
+    try (ZipInputStream zipIn = new ZipInputStream(new ByteArrayInputStream(archive))) {
+      assertEquals("folder/", zipIn.getNextEntry().getName());
+      for (int i = 0; i < ENTRIES; i++) {
+        assertEquals("folder/file" + i + ".txt", zipIn.getNextEntry().getName());
+        assertArrayEquals(content(i), read(zipIn));
+      }
+
+      assertEquals("nested.zip", zipIn.getNextEntry().getName());
+      byte[] nested = read(zipIn);
+      assertNull(zipIn.getNextEntry());
+
+      assertNestedArchive(nested);
+    }
+  }
+
+  private static void assertNestedArchive(byte[] archive) throws IOException {
+    try (ZipInputStream zipIn = new ZipInputStream(new ByteArrayInputStream(archive))) {
+      for (int i = 0; i < ENTRIES; i++) {
+        assertEquals("file" + i + ".txt", zipIn.getNextEntry().getName());
+        assertArrayEquals(content(i), read(zipIn));
+      }
+      assertNull(zipIn.getNextEntry());
+    }
+  }
+
+  private static byte[] nestedArchive() throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (ZipOutputStream zipOut = new ZipOutputStream(bos)) {
+      for (int i = 0; i < ENTRIES; i++) {
+        zipOut.putNextEntry(new ZipEntry("file" + i + ".txt"));
+        zipOut.write(content(i));
+        zipOut.closeEntry();
+      }
+    }
+    return bos.toByteArray();
+  }
+
+  private static byte[] archive(byte[] nested) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (ZipOutputStream zipOut = new ZipOutputStream(bos)) {
+      zipOut.putNextEntry(new ZipEntry("folder/"));
+      zipOut.closeEntry();
+      for (int i = 0; i < ENTRIES; i++) {
+        zipOut.putNextEntry(new ZipEntry("folder/file" + i + ".txt"));
+        zipOut.write(content(i));
+        zipOut.closeEntry();
+      }
+      zipOut.putNextEntry(new ZipEntry("nested.zip"));
+      zipOut.write(nested);
+      zipOut.closeEntry();
+    }
+    return bos.toByteArray();
+  }
+
+  private static byte[] archive(String firstName, byte[] first, String secondName, byte[] second)
+      throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (ZipOutputStream zipOut = new ZipOutputStream(bos)) {
+      zipOut.putNextEntry(new ZipEntry(firstName));
+      zipOut.write(first);
+      zipOut.putNextEntry(new ZipEntry(secondName));
+      zipOut.write(second);
+      zipOut.closeEntry();
+    }
+    return bos.toByteArray();
+  }
+
+  private static byte[] content(int index) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i <= index; i++) {
+      sb.append("Line ").append(i).append(" of file ").append(index).append('\n');
+    }
+    return sb.toString().getBytes();
+  }
+
+  private static byte[] read(ZipInputStream zipIn) throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    StreamUtils.copy(zipIn, os);
+    return os.toByteArray();
+  }
+
+  private static class TextBleach implements Bleach {
+
+    private static final byte[] MAGIC = "Line ".getBytes();
+
+    @Override
+    public boolean handlesMagic(InputStream stream) {
+      return StreamUtils.hasHeader(stream, MAGIC);
+    }
+
+    @Override
+    public byte[][] getMagicSignatures() {
+      return new byte[][]{MAGIC};
+    }
+
+    @Override
+    public String getName() {
+      return "Text Bleach";
+    }
+
+    @Override
+    public void sanitize(InputStream inputStream, OutputStream outputStream,
+        BleachSession session) throws BleachException {
+      try {
+        StreamUtils.copy(inputStream, outputStream);
+      } catch (IOException e) {
+        throw new BleachException(e);
+      }
+    }
+  }
+}